@@ -0,0 +1,395 @@
+package org.apache.zeppelin.iginx;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 准入控制。限制每个用户、每个笔记以及整个解释器同时执行的段落数，超出限制的段落排队等待，并限制每个用户导出数据的带宽。
+ *
+ * <p>排队的段落按加权公平队列的顺序放行：每个段落入队时根据用户的权重计算虚拟完成时间，有空位时放行满足限制且虚拟完成时间最小的段落，
+ * 因此一个用户一次提交大量段落时，其他用户的段落不需要等待这些段落全部执行完。
+ *
+ * <p>解释器通过 {@link #shared} 获取进程内共用的控制器，同一进程中配置相同的解释器实例（如按笔记或按用户创建实例但共用进程时）共用限制和队列。
+ */
+public class AdmissionController {
+
+  // 等待期间检查段落是否已被取消的间隔
+  private static final long CANCEL_CHECK_INTERVAL_MS = 200;
+
+  // 当前线程持有的准入凭证，用于在导出时限制带宽
+  private static final ThreadLocal<Ticket> currentTicket = new ThreadLocal<>();
+
+  // 进程内共用的控制器，键为配置
+  private static final Map<String, AdmissionController> sharedControllers =
+      new ConcurrentHashMap<>();
+
+  private final int maxConcurrent;
+  private final int userMaxConcurrent;
+  private final int noteMaxConcurrent;
+  private final Map<String, Double> userWeights;
+  private final long userMaxBandwidth;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition changed = lock.newCondition();
+  private final List<Ticket> waiting = new ArrayList<>();
+  private final Map<String, Integer> runningByUser = new HashMap<>();
+  private final Map<String, Integer> runningByNote = new HashMap<>();
+  private final Map<String, Double> lastTagByUser = new HashMap<>();
+  private int running = 0;
+  private double virtualTime = 0;
+  private long nextSeq = 0;
+
+  private final Map<String, TokenBucket> bandwidthByUser = new ConcurrentHashMap<>();
+
+  /**
+   * @param maxConcurrent 同时执行的段落数上限，0表示不限制
+   * @param userMaxConcurrent 每个用户同时执行的段落数上限，0表示不限制
+   * @param noteMaxConcurrent 每个笔记同时执行的段落数上限，0表示不限制
+   * @param userWeights 用户的权重，未配置的用户权重为1
+   * @param userMaxBandwidth 每个用户导出数据的带宽上限(字节/秒)，0表示不限制
+   */
+  public AdmissionController(
+      int maxConcurrent,
+      int userMaxConcurrent,
+      int noteMaxConcurrent,
+      Map<String, Double> userWeights,
+      long userMaxBandwidth) {
+    this.maxConcurrent = maxConcurrent;
+    this.userMaxConcurrent = userMaxConcurrent;
+    this.noteMaxConcurrent = noteMaxConcurrent;
+    this.userWeights = userWeights;
+    this.userMaxBandwidth = userMaxBandwidth;
+  }
+
+  /**
+   * 获取进程内共用的控制器，配置相同时返回同一个对象
+   *
+   * @param maxConcurrent 同时执行的段落数上限，0表示不限制
+   * @param userMaxConcurrent 每个用户同时执行的段落数上限，0表示不限制
+   * @param noteMaxConcurrent 每个笔记同时执行的段落数上限，0表示不限制
+   * @param userWeights 用户权重配置，格式见 {@link #parseWeights}
+   * @param userMaxBandwidth 每个用户导出数据的带宽上限(字节/秒)，0表示不限制
+   * @return 控制器
+   */
+  public static AdmissionController shared(
+      int maxConcurrent,
+      int userMaxConcurrent,
+      int noteMaxConcurrent,
+      String userWeights,
+      long userMaxBandwidth) {
+    Map<String, Double> weights = parseWeights(userWeights);
+    String key =
+        maxConcurrent
+            + "/"
+            + userMaxConcurrent
+            + "/"
+            + noteMaxConcurrent
+            + "/"
+            + userMaxBandwidth
+            + "/"
+            + new TreeMap<>(weights);
+    return sharedControllers.computeIfAbsent(
+        key,
+        k ->
+            new AdmissionController(
+                maxConcurrent, userMaxConcurrent, noteMaxConcurrent, weights, userMaxBandwidth));
+  }
+
+  /**
+   * 解析用户权重配置，格式为 用户名:权重，多个用户之间用逗号分隔，例如 alice:2,bob:0.5
+   *
+   * @param config 权重配置
+   * @return 用户名到权重的映射
+   */
+  public static Map<String, Double> parseWeights(String config) {
+    Map<String, Double> weights = new HashMap<>();
+    for (String item : config.split(",")) {
+      item = item.trim();
+      if (item.isEmpty()) {
+        continue;
+      }
+      int index = item.lastIndexOf(':');
+      if (index <= 0) {
+        throw new IllegalArgumentException("Invalid user weight: " + item);
+      }
+      double weight = Double.parseDouble(item.substring(index + 1).trim());
+      if (weight <= 0) {
+        throw new IllegalArgumentException("User weight must be positive: " + item);
+      }
+      weights.put(item.substring(0, index).trim(), weight);
+    }
+    return weights;
+  }
+
+  /** 当前线程持有的准入凭证，没有时返回null */
+  public static Ticket currentTicket() {
+    return currentTicket.get();
+  }
+
+  /**
+   * 等待准入，返回的凭证需要在执行结束后调用 {@link Ticket#close()} 归还
+   *
+   * @param user 用户名
+   * @param noteId 笔记ID
+   * @param cancelled 段落是否已被取消，取消后不再等待
+   * @return 准入凭证，段落在等待期间被取消时返回null
+   * @throws InterruptedException 等待时被中断
+   */
+  public Ticket acquire(String user, String noteId, BooleanSupplier cancelled)
+      throws InterruptedException {
+    Ticket ticket = new Ticket(user, noteId);
+    lock.lock();
+    try {
+      double start = Math.max(virtualTime, lastTagByUser.getOrDefault(ticket.user, 0.0));
+      ticket.tag = start + 1.0 / userWeights.getOrDefault(ticket.user, 1.0);
+      ticket.seq = nextSeq++;
+      lastTagByUser.put(ticket.user, ticket.tag);
+      waiting.add(ticket);
+      try {
+        while (selectNext() != ticket) {
+          if (cancelled.getAsBoolean()) {
+            waiting.remove(ticket);
+            changed.signalAll();
+            return null;
+          }
+          ticket.queued = true;
+          changed.await(CANCEL_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+      } catch (InterruptedException e) {
+        waiting.remove(ticket);
+        changed.signalAll();
+        throw e;
+      }
+      waiting.remove(ticket);
+      virtualTime = Math.max(virtualTime, ticket.tag);
+      running++;
+      runningByUser.merge(ticket.user, 1, Integer::sum);
+      runningByNote.merge(ticket.noteId, 1, Integer::sum);
+      if (waiting.isEmpty()) {
+        // 没有排队的段落时重置虚拟时间，避免长期运行后浮点数失去精度
+        virtualTime = 0;
+        lastTagByUser.clear();
+      }
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    ticket.waitMs = System.currentTimeMillis() - ticket.enqueueTime;
+    ticket.previous = currentTicket.get();
+    currentTicket.set(ticket);
+    return ticket;
+  }
+
+  /**
+   * 不等待地获取准入，用于段落中并行执行的额外语句（如 foreach 展开的语句）。有段落在排队或超出限制时直接返回null，不插队
+   *
+   * @param user 用户名
+   * @param noteId 笔记ID
+   * @return 准入凭证，无法立即准入时返回null
+   */
+  public Ticket tryAcquire(String user, String noteId) {
+    Ticket ticket = new Ticket(user, noteId);
+    lock.lock();
+    try {
+      if (!waiting.isEmpty()
+          || (maxConcurrent > 0 && running >= maxConcurrent)
+          || !withinUserAndNoteLimits(ticket)) {
+        return null;
+      }
+      running++;
+      runningByUser.merge(ticket.user, 1, Integer::sum);
+      runningByNote.merge(ticket.noteId, 1, Integer::sum);
+    } finally {
+      lock.unlock();
+    }
+    ticket.previous = currentTicket.get();
+    currentTicket.set(ticket);
+    return ticket;
+  }
+
+  private boolean withinUserAndNoteLimits(Ticket ticket) {
+    if (userMaxConcurrent > 0 && runningByUser.getOrDefault(ticket.user, 0) >= userMaxConcurrent) {
+      return false;
+    }
+    return noteMaxConcurrent <= 0
+        || runningByNote.getOrDefault(ticket.noteId, 0) < noteMaxConcurrent;
+  }
+
+  /** 满足限制且虚拟完成时间最小的排队凭证，没有时返回null */
+  private Ticket selectNext() {
+    if (maxConcurrent > 0 && running >= maxConcurrent) {
+      return null;
+    }
+    Ticket next = null;
+    for (Ticket ticket : waiting) {
+      if (!withinUserAndNoteLimits(ticket)) {
+        continue;
+      }
+      if (next == null
+          || ticket.tag < next.tag
+          || (ticket.tag == next.tag && ticket.seq < next.seq)) {
+        next = ticket;
+      }
+    }
+    return next;
+  }
+
+  private void release(Ticket ticket) {
+    lock.lock();
+    try {
+      running--;
+      decrement(runningByUser, ticket.user);
+      decrement(runningByNote, ticket.noteId);
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static void decrement(Map<String, Integer> counts, String key) {
+    counts.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null);
+  }
+
+  /** 正在执行的段落数 */
+  public int getRunning() {
+    lock.lock();
+    try {
+      return running;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** 排队等待的段落数 */
+  public int getWaiting() {
+    lock.lock();
+    try {
+      return waiting.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** 准入凭证 */
+  public class Ticket implements AutoCloseable {
+    private final String user;
+    private final String noteId;
+    private final long enqueueTime = System.currentTimeMillis();
+    private double tag;
+    private long seq;
+    private long waitMs;
+    private boolean queued = false;
+    private Ticket previous;
+    private boolean closed = false;
+
+    private Ticket(String user, String noteId) {
+      this.user = user != null ? user : "";
+      this.noteId = noteId != null ? noteId : "";
+    }
+
+    public String getUser() {
+      return user;
+    }
+
+    public String getNoteId() {
+      return noteId;
+    }
+
+    /** 是否因超出并发限制而排队等待过 */
+    public boolean isQueued() {
+      return queued;
+    }
+
+    /** 排队等待的时间(毫秒) */
+    public long getWaitMs() {
+      return waitMs;
+    }
+
+    /**
+     * 导出数据前调用，超出用户的带宽上限时等待
+     *
+     * @param bytes 即将导出的字节数
+     * @throws InterruptedException 等待时被中断
+     */
+    public void throttle(long bytes) throws InterruptedException {
+      if (userMaxBandwidth <= 0 || bytes <= 0) {
+        return;
+      }
+      bandwidthByUser.computeIfAbsent(user, k -> new TokenBucket(userMaxBandwidth)).acquire(bytes);
+    }
+
+    /**
+     * 在当前线程中使用此凭证，如段落中在其他线程执行的语句，导出时按此凭证的用户限制带宽。不占用新的名额
+     *
+     * @return 关闭后恢复当前线程原来的凭证
+     */
+    public Binding bind() {
+      Ticket previousTicket = currentTicket.get();
+      currentTicket.set(this);
+      return () -> {
+        if (previousTicket != null) {
+          currentTicket.set(previousTicket);
+        } else {
+          currentTicket.remove();
+        }
+      };
+    }
+
+    @Override
+    public void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      if (currentTicket.get() == this) {
+        if (previous != null) {
+          currentTicket.set(previous);
+        } else {
+          currentTicket.remove();
+        }
+      }
+      release(this);
+    }
+  }
+
+  /** 在其他线程中使用的凭证，关闭时不归还名额 */
+  public interface Binding extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+  /** 令牌桶，每秒补充的令牌数等于带宽上限，最多积累1秒的令牌 */
+  private static class TokenBucket {
+    private final long rate;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    private TokenBucket(long rate) {
+      this.rate = rate;
+      this.tokens = rate;
+    }
+
+    private void acquire(long bytes) throws InterruptedException {
+      long waitNanos;
+      synchronized (this) {
+        long now = System.nanoTime();
+        tokens = Math.min(rate, tokens + (now - lastRefill) * rate / 1e9);
+        lastRefill = now;
+        // 允许令牌数为负，一次超过桶容量的请求也能通过，之后的请求等待令牌补足
+        tokens -= bytes;
+        waitNanos = tokens < 0 ? (long) (-tokens * 1e9 / rate) : 0;
+      }
+      if (waitNanos > 0) {
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+      }
+    }
+  }
+}
@@ -0,0 +1,193 @@
+package org.apache.zeppelin.iginx;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 后台任务注册表。通过 submit async 提交的语句在后台线程中执行，段落立即返回任务ID，之后通过 show jobs 和 fetch job 查看状态和结果。
+ *
+ * <p>每个任务记录提交它的用户，用户只能查看和获取自己提交的任务。任务结果保存在下载文件夹中，注册表只保存任务的状态信息。已结束的任务数超过上限后，最早结束的任务会被移除，执行中的任务不会被移除。
+ */
+public class AsyncJobRegistry {
+
+  public enum Status {
+    RUNNING,
+    SUCCESS,
+    ERROR
+  }
+
+  // 当前线程正在执行的后台任务，用于在导出时记录进度
+  private static final ThreadLocal<Job> currentJob = new ThreadLocal<>();
+
+  private static final ExecutorService executor =
+      Executors.newCachedThreadPool(new DaemonThreadFactory("iginx-async-job-"));
+
+  private final int maxJobs;
+  private final AtomicLong nextId = new AtomicLong(1);
+  // 按提交顺序保存
+  private final Map<Long, Job> jobs = new LinkedHashMap<>();
+
+  public AsyncJobRegistry(int maxJobs) {
+    this.maxJobs = Math.max(1, maxJobs);
+  }
+
+  /** 当前线程正在执行的后台任务，不在后台任务中时返回null */
+  public static Job currentJob() {
+    return currentJob.get();
+  }
+
+  /**
+   * 提交后台任务
+   *
+   * @param statement 任务执行的语句
+   * @param owner 提交任务的用户
+   * @param body 任务内容，执行结束后需要调用 {@link Job#finish} 记录结果
+   * @return 任务
+   */
+  public Job submit(String statement, String owner, JobBody body) {
+    Job job = new Job(nextId.getAndIncrement(), statement, owner != null ? owner : "");
+    synchronized (jobs) {
+      jobs.put(job.id, job);
+    }
+    executor.execute(
+        () -> {
+          currentJob.set(job);
+          try {
+            body.run(job);
+          } catch (Throwable e) {
+            job.finish(false, null, e.getMessage());
+          } finally {
+            currentJob.remove();
+            job.pipeline = null;
+            evictFinishedJobs();
+          }
+        });
+    return job;
+  }
+
+  /** 获取用户提交的任务，不存在、已被移除或不属于该用户时返回null */
+  public Job get(long id, String owner) {
+    synchronized (jobs) {
+      Job job = jobs.get(id);
+      return job != null && job.owner.equals(owner != null ? owner : "") ? job : null;
+    }
+  }
+
+  /** 按提交顺序返回用户提交的所有任务 */
+  public List<Job> list(String owner) {
+    String jobOwner = owner != null ? owner : "";
+    List<Job> result = new ArrayList<>();
+    synchronized (jobs) {
+      for (Job job : jobs.values()) {
+        if (job.owner.equals(jobOwner)) {
+          result.add(job);
+        }
+      }
+    }
+    return result;
+  }
+
+  private void evictFinishedJobs() {
+    synchronized (jobs) {
+      Iterator<Job> iterator = jobs.values().iterator();
+      while (jobs.size() > maxJobs && iterator.hasNext()) {
+        if (iterator.next().status != Status.RUNNING) {
+          iterator.remove();
+        }
+      }
+    }
+  }
+
+  /** 任务内容 */
+  public interface JobBody {
+    void run(Job job) throws Exception;
+  }
+
+  /** 后台任务的状态信息 */
+  public static class Job {
+    private final long id;
+    private final String statement;
+    private final String owner;
+    private final long submitTime = System.currentTimeMillis();
+    private volatile long finishTime = 0;
+    private volatile Status status = Status.RUNNING;
+    private volatile String resultDir;
+    private volatile String errorMessage;
+    private volatile ExportPipeline pipeline;
+
+    private Job(long id, String statement, String owner) {
+      this.id = id;
+      this.statement = statement;
+      this.owner = owner;
+    }
+
+    /**
+     * 记录任务结果，只有第一次调用有效
+     *
+     * @param success 是否执行成功
+     * @param resultDir 保存结果的下载子文件夹名，没有结果时为null
+     * @param errorMessage 错误信息，没有时为null
+     */
+    public synchronized void finish(boolean success, String resultDir, String errorMessage) {
+      if (status != Status.RUNNING) {
+        return;
+      }
+      this.resultDir = resultDir;
+      this.errorMessage = errorMessage;
+      this.finishTime = System.currentTimeMillis();
+      this.status = success ? Status.SUCCESS : Status.ERROR;
+    }
+
+    /** 记录正在执行的导出，用于查询进度 */
+    public void setPipeline(ExportPipeline pipeline) {
+      this.pipeline = pipeline;
+    }
+
+    public long getId() {
+      return id;
+    }
+
+    public String getStatement() {
+      return statement;
+    }
+
+    /** 提交任务的用户，匿名用户为空字符串 */
+    public String getOwner() {
+      return owner;
+    }
+
+    public long getSubmitTime() {
+      return submitTime;
+    }
+
+    public Status getStatus() {
+      return status;
+    }
+
+    public String getResultDir() {
+      return resultDir;
+    }
+
+    public String getErrorMessage() {
+      return errorMessage;
+    }
+
+    /** 任务已执行的时间(毫秒)，已结束的任务返回总耗时 */
+    public long getElapsedMs() {
+      long end = status == Status.RUNNING ? System.currentTimeMillis() : finishTime;
+      return end - submitTime;
+    }
+
+    /** 导出时已从IGinX拉取的行数，没有进行中的导出时返回-1 */
+    public long getFetchedRows() {
+      ExportPipeline exportPipeline = pipeline;
+      return exportPipeline != null ? exportPipeline.getFetchedRows() : -1;
+    }
+  }
+}
@@ -0,0 +1,297 @@
+package org.apache.zeppelin.iginx;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 将查询结果写成按列存储的文件，供同一台服务器上的其他解释器通过内存映射直接读取，不需要再次查询IGinX或解析文本。
+ *
+ * <p>文件布局参考 Arrow：每列由有效位图（第i位为1表示第i行不为空，低位在前）和数据缓冲区组成，二进制列另有 n+1 个 int64 偏移量， 所有缓冲区按 64
+ * 字节对齐，数值以小端序存放。文件开头为魔数和描述文件，描述文件为JSON，记录行数以及每一列的类型和各个缓冲区的偏移量，与放入资源池的描述相同。 数值列可以直接用
+ * numpy.frombuffer 读取。
+ */
+public class ColumnarResultWriter {
+
+  public static final String FORMAT = "iginx-columnar-1";
+
+  private static final byte[] MAGIC = "IGXCOL1\0".getBytes(StandardCharsets.US_ASCII);
+  private static final int ALIGNMENT = 64;
+  // 预留给描述的空间，描述超出时按实际大小重新计算布局
+  private static final int INITIAL_HEADER_SIZE = 4096;
+
+  private ColumnarResultWriter() {}
+
+  /**
+   * 写入查询结果
+   *
+   * @param file 目标文件，已存在时覆盖
+   * @param keys 每一行的key，没有key列时为null
+   * @param paths 列名
+   * @param values 每一行的值
+   * @return 描述文件布局的JSON
+   * @throws IOException 写入失败
+   */
+  public static String write(File file, long[] keys, List<String> paths, List<List<Object>> values)
+      throws IOException {
+    int rows = values.size();
+    List<Column> columns = new ArrayList<>();
+    if (keys != null) {
+      Column keyColumn = new Column("key", Type.INT64);
+      keyColumn.keys = keys;
+      columns.add(keyColumn);
+    }
+    for (int i = 0; i < paths.size(); i++) {
+      Column column = new Column(paths.get(i), inferType(values, i));
+      column.index = i;
+      if (column.type == Type.BINARY) {
+        for (List<Object> row : values) {
+          Object value = row.get(i);
+          if (value != null) {
+            column.binaryLength += toBytes(value).length;
+          }
+        }
+      }
+      columns.add(column);
+    }
+
+    // 描述中含有各缓冲区的偏移量，而偏移量又取决于描述的长度，描述超出预留空间时扩大后重新计算
+    int headerSize = INITIAL_HEADER_SIZE;
+    String descriptor;
+    long totalSize;
+    while (true) {
+      totalSize = layout(columns, rows, headerSize);
+      descriptor = describe(file, rows, columns);
+      int needed = MAGIC.length + 8 + descriptor.getBytes(StandardCharsets.UTF_8).length;
+      if (needed <= headerSize) {
+        break;
+      }
+      headerSize = align(needed);
+    }
+    if (totalSize > Integer.MAX_VALUE) {
+      throw new IOException("Result is too large to share: " + totalSize + " bytes.");
+    }
+
+    try (FileChannel channel =
+        FileChannel.open(
+            file.toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, totalSize);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      byte[] descriptorBytes = descriptor.getBytes(StandardCharsets.UTF_8);
+      buffer.put(MAGIC);
+      buffer.putLong(descriptorBytes.length);
+      buffer.put(descriptorBytes);
+      for (Column column : columns) {
+        writeColumn(buffer, column, values, rows);
+      }
+      buffer.force();
+    }
+    return descriptor;
+  }
+
+  /** 按列中的非空值推断类型，全为空的列按int64处理，含有不同类型的值时按二进制列写入各个值的字符串形式 */
+  private static Type inferType(List<List<Object>> values, int index) {
+    Type type = null;
+    for (List<Object> row : values) {
+      Object value = row.get(index);
+      if (value == null) {
+        continue;
+      }
+      Type valueType = typeOf(value);
+      if (type == null) {
+        type = valueType;
+      } else if (type != valueType) {
+        return Type.BINARY;
+      }
+    }
+    return type != null ? type : Type.INT64;
+  }
+
+  private static Type typeOf(Object value) {
+    if (value instanceof Long) {
+      return Type.INT64;
+    } else if (value instanceof Double) {
+      return Type.FLOAT64;
+    } else if (value instanceof Integer) {
+      return Type.INT32;
+    } else if (value instanceof Float) {
+      return Type.FLOAT32;
+    } else if (value instanceof Boolean) {
+      return Type.BOOL;
+    }
+    return Type.BINARY;
+  }
+
+  private static byte[] toBytes(Object value) {
+    return value instanceof byte[]
+        ? (byte[]) value
+        : String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+  }
+
+  /** 计算每一列各缓冲区的偏移量，返回文件总大小 */
+  private static long layout(List<Column> columns, int rows, int headerSize) {
+    long offset = headerSize;
+    for (Column column : columns) {
+      column.validityOffset = offset;
+      offset = align(offset + (rows + 7) / 8);
+      if (column.type == Type.BINARY) {
+        column.offsetsOffset = offset;
+        offset = align(offset + (rows + 1) * 8L);
+        column.dataOffset = offset;
+        column.dataLength = column.binaryLength;
+      } else {
+        column.dataOffset = offset;
+        column.dataLength = (long) rows * column.type.width;
+      }
+      offset = align(offset + column.dataLength);
+    }
+    return offset;
+  }
+
+  private static void writeColumn(
+      MappedByteBuffer buffer, Column column, List<List<Object>> values, int rows) {
+    long binaryOffset = 0;
+    byte validity = 0;
+    for (int row = 0; row < rows; row++) {
+      Object value = column.keys != null ? column.keys[row] : values.get(row).get(column.index);
+      if (value != null) {
+        validity |= 1 << (row % 8);
+      }
+      if (row % 8 == 7 || row == rows - 1) {
+        buffer.put((int) (column.validityOffset + row / 8), validity);
+        validity = 0;
+      }
+
+      if (column.type == Type.BINARY) {
+        buffer.putLong((int) (column.offsetsOffset + row * 8L), binaryOffset);
+        if (value != null) {
+          byte[] bytes = toBytes(value);
+          buffer.position((int) (column.dataOffset + binaryOffset));
+          buffer.put(bytes);
+          binaryOffset += bytes.length;
+        }
+        continue;
+      }
+      // 空值的位置写0，读取时需要结合有效位图
+      if (value == null) {
+        continue;
+      }
+      int position = (int) (column.dataOffset + (long) row * column.type.width);
+      switch (column.type) {
+        case INT64:
+          buffer.putLong(position, ((Number) value).longValue());
+          break;
+        case FLOAT64:
+          buffer.putDouble(position, ((Number) value).doubleValue());
+          break;
+        case INT32:
+          buffer.putInt(position, ((Number) value).intValue());
+          break;
+        case FLOAT32:
+          buffer.putFloat(position, ((Number) value).floatValue());
+          break;
+        case BOOL:
+          buffer.put(position, (byte) ((Boolean) value ? 1 : 0));
+          break;
+        default:
+          break;
+      }
+    }
+    if (column.type == Type.BINARY) {
+      buffer.putLong((int) (column.offsetsOffset + rows * 8L), binaryOffset);
+    }
+  }
+
+  private static String describe(File file, int rows, List<Column> columns) {
+    StringBuilder builder = new StringBuilder();
+    builder.append("{\"format\":\"").append(FORMAT).append("\"");
+    builder.append(",\"path\":");
+    appendJsonString(builder, file.getAbsolutePath());
+    builder.append(",\"rows\":").append(rows).append(",\"columns\":[");
+    for (int i = 0; i < columns.size(); i++) {
+      Column column = columns.get(i);
+      if (i != 0) {
+        builder.append(',');
+      }
+      builder.append("{\"name\":");
+      appendJsonString(builder, column.name);
+      builder.append(",\"dtype\":\"").append(column.type.dtype).append("\"");
+      builder.append(",\"validity\":").append(column.validityOffset);
+      if (column.type == Type.BINARY) {
+        builder.append(",\"offsets\":").append(column.offsetsOffset);
+      }
+      builder.append(",\"data\":").append(column.dataOffset);
+      builder.append(",\"length\":").append(column.dataLength).append('}');
+    }
+    builder.append("]}");
+    return builder.toString();
+  }
+
+  private static void appendJsonString(StringBuilder builder, String value) {
+    builder.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        builder.append('\\').append(c);
+      } else if (c < 0x20) {
+        builder.append(String.format("\\u%04x", (int) c));
+      } else {
+        builder.append(c);
+      }
+    }
+    builder.append('"');
+  }
+
+  private static int align(int offset) {
+    return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+  }
+
+  private static long align(long offset) {
+    return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+  }
+
+  /** 列类型，dtype为numpy中对应的类型，二进制列的数据为各行字节的拼接 */
+  private enum Type {
+    INT64("<i8", 8),
+    FLOAT64("<f8", 8),
+    INT32("<i4", 4),
+    FLOAT32("<f4", 4),
+    BOOL("|b1", 1),
+    BINARY("binary", 0);
+
+    private final String dtype;
+    private final int width;
+
+    Type(String dtype, int width) {
+      this.dtype = dtype;
+      this.width = width;
+    }
+  }
+
+  private static class Column {
+    private final String name;
+    private final Type type;
+    private int index = -1;
+    private long[] keys;
+    private long binaryLength = 0;
+    private long validityOffset;
+    private long offsetsOffset;
+    private long dataOffset;
+    private long dataLength;
+
+    private Column(String name, Type type) {
+      this.name = name;
+      this.type = type;
+    }
+  }
+}
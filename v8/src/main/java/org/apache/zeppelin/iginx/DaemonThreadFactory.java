@@ -0,0 +1,22 @@
+package org.apache.zeppelin.iginx;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** 创建守护线程的ThreadFactory，后台线程不会阻止解释器进程退出 */
+public class DaemonThreadFactory implements ThreadFactory {
+
+  private final String prefix;
+  private final AtomicInteger count = new AtomicInteger();
+
+  public DaemonThreadFactory(String prefix) {
+    this.prefix = prefix;
+  }
+
+  @Override
+  public Thread newThread(Runnable r) {
+    Thread thread = new Thread(r, prefix + count.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  }
+}
@@ -0,0 +1,151 @@
+package org.apache.zeppelin.iginx;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * 下载文件夹中的导出子文件夹。同一进程中使用同一下载文件夹的解释器实例共用一个队列，按生成顺序清理最早的子文件夹，避免各实例按各自的队列清理时删除其他实例刚生成的文件夹。
+ *
+ * <p>共用下载文件夹的其他进程也可能清理同一个子文件夹，因此统计大小和清理时忽略已经不存在的文件和文件夹。
+ */
+public class DownloadStore {
+
+  private static final Map<String, DownloadStore> stores = new HashMap<>();
+
+  private final Queue<String> dirQueue = new LinkedList<>();
+  private final Queue<Double> dirSizeQueue = new LinkedList<>();
+  private double totalSize = 0;
+
+  private DownloadStore() {}
+
+  /**
+   * 获取下载文件夹对应的队列，第一次获取时扫描下载文件夹中已有的子文件夹
+   *
+   * @param outfileDir 下载文件夹
+   * @return 同一进程中共用的队列
+   * @throws IOException 无法扫描下载文件夹
+   */
+  public static DownloadStore shared(String outfileDir) throws IOException {
+    String key = new File(outfileDir).getCanonicalPath();
+    synchronized (stores) {
+      DownloadStore store = stores.get(key);
+      if (store == null) {
+        store = new DownloadStore();
+        store.load(new File(key));
+        stores.put(key, store);
+      }
+      return store;
+    }
+  }
+
+  /** 按修改时间加入下载文件夹中已有的子文件夹，保证最早的文件夹最先被清理 */
+  private void load(File folder) throws IOException {
+    File[] files = folder.listFiles();
+    if (files == null) {
+      return;
+    }
+    Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+    for (File file : files) {
+      if (file.isDirectory()) {
+        add(file.getAbsolutePath());
+      }
+    }
+  }
+
+  /**
+   * 记录新生成的子文件夹，并在数量或大小超过限制时清理最早的子文件夹，不清理最新的子文件夹
+   *
+   * @param dirPath 子文件夹路径
+   * @param maxNum 子文件夹的最大数量
+   * @param maxSize 子文件夹的最大总大小(MB)
+   * @throws IOException 无法清理子文件夹
+   */
+  public synchronized void register(String dirPath, int maxNum, double maxSize) throws IOException {
+    add(dirPath);
+    while ((dirQueue.size() > maxNum || totalSize > maxSize) && dirQueue.size() > 1) {
+      String oldestDir = dirQueue.poll();
+      totalSize -= dirSizeQueue.poll();
+      delete(Paths.get(oldestDir));
+    }
+  }
+
+  private synchronized void add(String dirPath) throws IOException {
+    double size = sizeOf(Paths.get(dirPath));
+    dirQueue.add(dirPath);
+    dirSizeQueue.add(size);
+    totalSize += size;
+  }
+
+  /**
+   * 获取文件夹下所有文件的大小(MB)，已被删除的文件不计入
+   *
+   * @param path 文件夹路径
+   * @return 文件夹下所有文件的大小(MB)
+   * @throws IOException
+   */
+  private static double sizeOf(Path path) throws IOException {
+    final double[] size = {0L};
+    Files.walkFileTree(
+        path,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            size[0] += attrs.size() / 1024.0 / 1024.0;
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+            if (exc instanceof NoSuchFileException) {
+              return FileVisitResult.CONTINUE;
+            }
+            throw exc;
+          }
+        });
+    return size[0];
+  }
+
+  /** 删除文件夹，其中的文件或文件夹本身已被其他进程删除时跳过 */
+  private static void delete(Path dir) throws IOException {
+    Files.walkFileTree(
+        dir,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+              throws IOException {
+            Files.deleteIfExists(file);
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+            if (exc instanceof NoSuchFileException) {
+              return FileVisitResult.CONTINUE;
+            }
+            throw exc;
+          }
+
+          @Override
+          public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+            if (exc != null && !(exc instanceof NoSuchFileException)) {
+              throw exc;
+            }
+            Files.deleteIfExists(dir);
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+}
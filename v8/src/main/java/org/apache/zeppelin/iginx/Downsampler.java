@@ -0,0 +1,150 @@
+package org.apache.zeppelin.iginx;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 使用 LTTB（Largest-Triangle-Three-Buckets）算法对时间序列降采样，在减少点数的同时保留曲线的峰谷形状，用于绘制折线图等图表。
+ *
+ * <p>多列结果对每个数值列分别降采样，最终保留各列选中行的并集，每列分得的点数为总点数上限除以数值列数，因此结果行数不超过上限。
+ */
+public class Downsampler {
+
+  // LTTB至少需要保留首尾两个点以及中间的一个桶
+  private static final int MIN_POINTS = 3;
+
+  /**
+   * 选择降采样后保留的行
+   *
+   * @param keys 每一行的时间戳，按升序排列
+   * @param values 每一行的值，每一列对应一条序列
+   * @param maxPoints 保留的最大行数
+   * @return 保留的行下标，按升序排列；行数未超过上限时返回null
+   */
+  public static int[] selectRows(long[] keys, List<List<Object>> values, int maxPoints) {
+    int rowCount = keys.length;
+    if (rowCount <= maxPoints) {
+      return null;
+    }
+    int columnCount = values.isEmpty() ? 0 : values.get(0).size();
+    List<Integer> numericColumns = new ArrayList<>();
+    for (int col = 0; col < columnCount; col++) {
+      for (List<Object> row : values) {
+        if (row.get(col) instanceof Number) {
+          numericColumns.add(col);
+          break;
+        }
+      }
+    }
+    int pointsPerColumn = numericColumns.isEmpty() ? 0 : maxPoints / numericColumns.size();
+    if (pointsPerColumn < MIN_POINTS) {
+      // 没有数值列，或数值列太多无法逐列降采样时，等间隔取点
+      return uniform(rowCount, maxPoints);
+    }
+
+    boolean[] selected = new boolean[rowCount];
+    int[] rows = new int[rowCount];
+    double[] x = new double[rowCount];
+    double[] y = new double[rowCount];
+    for (int col : numericColumns) {
+      // 空值不参与降采样
+      int n = 0;
+      for (int i = 0; i < rowCount; i++) {
+        Object value = values.get(i).get(col);
+        if (value instanceof Number) {
+          rows[n] = i;
+          x[n] = keys[i];
+          y[n] = ((Number) value).doubleValue();
+          n++;
+        }
+      }
+      for (int index : lttb(x, y, n, pointsPerColumn)) {
+        selected[rows[index]] = true;
+      }
+    }
+
+    int selectedCount = 0;
+    for (boolean s : selected) {
+      if (s) {
+        selectedCount++;
+      }
+    }
+    int[] result = new int[selectedCount];
+    int index = 0;
+    for (int i = 0; i < rowCount; i++) {
+      if (selected[i]) {
+        result[index++] = i;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * LTTB降采样
+   *
+   * @param x 横坐标，按升序排列
+   * @param y 纵坐标
+   * @param n 有效点数，只使用x和y的前n个元素
+   * @param threshold 保留的点数
+   * @return 保留的点的下标，按升序排列
+   */
+  static int[] lttb(double[] x, double[] y, int n, int threshold) {
+    if (threshold >= n || threshold < MIN_POINTS) {
+      int[] all = new int[n];
+      for (int i = 0; i < n; i++) {
+        all[i] = i;
+      }
+      return all;
+    }
+
+    int[] sampled = new int[threshold];
+    int sampledIndex = 0;
+    // 首尾两个点固定保留，中间的点平均分到 threshold - 2 个桶中，每个桶选一个点
+    double every = (double) (n - 2) / (threshold - 2);
+    int a = 0;
+    sampled[sampledIndex++] = a;
+
+    for (int i = 0; i < threshold - 2; i++) {
+      // 下一个桶的平均点，作为三角形的第三个顶点
+      int avgRangeStart = (int) Math.floor((i + 1) * every) + 1;
+      int avgRangeEnd = Math.min((int) Math.floor((i + 2) * every) + 1, n);
+      double avgX = 0;
+      double avgY = 0;
+      for (int j = avgRangeStart; j < avgRangeEnd; j++) {
+        avgX += x[j];
+        avgY += y[j];
+      }
+      int avgRangeLength = avgRangeEnd - avgRangeStart;
+      avgX /= avgRangeLength;
+      avgY /= avgRangeLength;
+
+      // 在当前桶中选择与上一个选中点、下一个桶的平均点构成的三角形面积最大的点
+      int rangeStart = (int) Math.floor(i * every) + 1;
+      int rangeEnd = (int) Math.floor((i + 1) * every) + 1;
+      double maxArea = -1;
+      int maxAreaIndex = rangeStart;
+      for (int j = rangeStart; j < rangeEnd; j++) {
+        double area = Math.abs((x[a] - avgX) * (y[j] - y[a]) - (x[a] - x[j]) * (avgY - y[a])) * 0.5;
+        if (area > maxArea) {
+          maxArea = area;
+          maxAreaIndex = j;
+        }
+      }
+      sampled[sampledIndex++] = maxAreaIndex;
+      a = maxAreaIndex;
+    }
+
+    sampled[sampledIndex] = n - 1;
+    return sampled;
+  }
+
+  /** 等间隔选取count个下标，包含首尾 */
+  private static int[] uniform(int n, int count) {
+    count = Math.max(2, Math.min(n, count));
+    int[] result = new int[count];
+    for (int i = 0; i < count; i++) {
+      result[i] = (int) ((long) i * (n - 1) / (count - 1));
+    }
+    return result;
+  }
+}
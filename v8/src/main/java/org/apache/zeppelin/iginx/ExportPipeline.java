@@ -0,0 +1,211 @@
+package org.apache.zeppelin.iginx;
+
+import static cn.edu.tsinghua.iginx.utils.FileUtils.exportByteStream;
+
+import cn.edu.tsinghua.iginx.exception.SessionException;
+import cn.edu.tsinghua.iginx.session.QueryDataSet;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * INTO OUTFILE 导出流水线：调用线程从 IGinX 拉取数据，写线程同时将已拉取的批次写入文件。
+ *
+ * <p>列文件按顺序轮流分配给各个写线程，每个批次被所有写线程写完自己负责的列之后回收复用。批次总数固定，写入跟不上时拉取线程会等待空闲批次，
+ * 因此内存占用有上限，导出速度取决于网络和磁盘中较慢的一方。
+ */
+public class ExportPipeline {
+
+  private static final ExecutorService writerExecutor =
+      Executors.newCachedThreadPool(new DaemonThreadFactory("iginx-export-writer-"));
+
+  // 通知写线程结束的批次
+  private static final Batch END = new Batch(0);
+
+  private final int fetchSize;
+  private final int writerNum;
+  private final int queueSize;
+  private final AdmissionController.Ticket ticket;
+
+  private final AtomicLong fetchedRows = new AtomicLong();
+
+  /**
+   * @param fetchSize 每批拉取的行数
+   * @param writerNum 写线程数
+   * @param queueSize 最多缓存的批次数
+   * @param ticket 执行导出的段落的准入凭证，用于限制导出带宽，为null时不限制
+   */
+  public ExportPipeline(
+      int fetchSize, int writerNum, int queueSize, AdmissionController.Ticket ticket) {
+    this.fetchSize = Math.max(1, fetchSize);
+    this.writerNum = Math.max(1, writerNum);
+    this.queueSize = Math.max(1, queueSize);
+    this.ticket = ticket;
+  }
+
+  /** 已拉取的行数 */
+  public long getFetchedRows() {
+    return fetchedRows.get();
+  }
+
+  /**
+   * 将QueryDataSet中的结果导出到列文件中，返回时所有数据都已写入
+   *
+   * @param res QueryDataSet
+   * @param columns 每一列对应的文件路径，空字符串表示该列不导出
+   * @throws SessionException 拉取数据失败
+   * @throws IOException 写入文件失败
+   */
+  public void export(QueryDataSet res, String[] columns) throws SessionException, IOException {
+    List<String[]> shards = shardColumns(columns);
+    BlockingQueue<Batch> freeBatches = new ArrayBlockingQueue<>(queueSize);
+    for (int i = 0; i < queueSize; i++) {
+      freeBatches.add(new Batch(fetchSize));
+    }
+    AtomicReference<Throwable> error = new AtomicReference<>();
+
+    List<BlockingQueue<Batch>> writerQueues = new ArrayList<>();
+    List<Future<?>> writers = new ArrayList<>();
+    for (String[] shard : shards) {
+      BlockingQueue<Batch> writerQueue = new LinkedBlockingQueue<>();
+      writerQueues.add(writerQueue);
+      writers.add(
+          writerExecutor.submit(
+              () -> {
+                runWriter(writerQueue, shard, freeBatches, error);
+                return null;
+              }));
+    }
+
+    try {
+      while (error.get() == null && res.hasMore()) {
+        Batch batch = freeBatches.poll(100, TimeUnit.MILLISECONDS);
+        if (batch == null) {
+          continue;
+        }
+        while (batch.rows.size() < fetchSize && res.hasMore()) {
+          List<byte[]> nextRow = res.nextRowAsBytes();
+          if (nextRow != null) {
+            batch.rows.add(nextRow);
+          }
+        }
+        fetchedRows.addAndGet(batch.rows.size());
+        if (ticket != null) {
+          ticket.throttle(batchBytes(batch));
+        }
+        batch.pendingWriters.set(writerQueues.size());
+        for (BlockingQueue<Batch> writerQueue : writerQueues) {
+          writerQueue.add(batch);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      error.compareAndSet(null, e);
+    } finally {
+      for (BlockingQueue<Batch> writerQueue : writerQueues) {
+        writerQueue.add(END);
+      }
+      for (Future<?> writer : writers) {
+        try {
+          writer.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          error.compareAndSet(null, e);
+        } catch (ExecutionException e) {
+          error.compareAndSet(null, e.getCause());
+        }
+      }
+    }
+
+    Throwable throwable = error.get();
+    if (throwable instanceof IOException) {
+      throw (IOException) throwable;
+    } else if (throwable != null) {
+      throw new IOException("Export failed: " + throwable.getMessage(), throwable);
+    }
+  }
+
+  private static long batchBytes(Batch batch) {
+    long bytes = 0;
+    for (List<byte[]> row : batch.rows) {
+      for (byte[] value : row) {
+        if (value != null) {
+          bytes += value.length;
+        }
+      }
+    }
+    return bytes;
+  }
+
+  /** 将需要导出的列轮流分配给各个写线程，每个写线程负责的列以外的位置置为空字符串 */
+  private List<String[]> shardColumns(String[] columns) {
+    int exportCount = 0;
+    for (String column : columns) {
+      if (!column.isEmpty()) {
+        exportCount++;
+      }
+    }
+    int shardNum = Math.max(1, Math.min(writerNum, exportCount));
+    List<String[]> shards = new ArrayList<>();
+    for (int i = 0; i < shardNum; i++) {
+      String[] shard = new String[columns.length];
+      Arrays.fill(shard, "");
+      shards.add(shard);
+    }
+    int index = 0;
+    for (int i = 0; i < columns.length; i++) {
+      if (!columns[i].isEmpty()) {
+        shards.get(index++ % shardNum)[i] = columns[i];
+      }
+    }
+    return shards;
+  }
+
+  private static void runWriter(
+      BlockingQueue<Batch> writerQueue,
+      String[] shard,
+      BlockingQueue<Batch> freeBatches,
+      AtomicReference<Throwable> error)
+      throws InterruptedException {
+    while (true) {
+      Batch batch = writerQueue.take();
+      if (batch == END) {
+        return;
+      }
+      // 出错后不再写入，但仍需回收批次，让拉取线程尽快结束
+      if (error.get() == null) {
+        try {
+          exportByteStream(batch.rows, shard);
+        } catch (Throwable e) {
+          error.compareAndSet(null, e);
+        }
+      }
+      if (batch.pendingWriters.decrementAndGet() == 0) {
+        batch.rows.clear();
+        freeBatches.add(batch);
+      }
+    }
+  }
+
+  /** 一批拉取的数据，每一行为一个List<byte[]>，每一列为一个byte[] */
+  private static class Batch {
+    private final List<List<byte[]>> rows;
+    private final AtomicInteger pendingWriters = new AtomicInteger();
+
+    private Batch(int capacity) {
+      this.rows = new ArrayList<>(capacity);
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package org.apache.zeppelin.iginx;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 参数化批量执行语句：foreach 参数名 in (值1, 值2, ...) 语句模板。模板中的 #{参数名} 依次替换为每个值后得到多条语句。
+ *
+ * <p>值列表可以直接写在语句中，也可以使用 Zeppelin 的动态表单，例如 {@code (${checkbox:device=d1|d2,d1|d2|d3})}，
+ * 表单在语句发送给解释器之前已被替换为以逗号分隔的值。
+ */
+public class ForeachStatement {
+
+  private static final Pattern FOREACH_PATTERN =
+      Pattern.compile("(?i)^foreach\\s+(\\w+)\\s+in\\s+\\((.*?)\\)\\s+(.+)$");
+
+  private final String param;
+  private final List<String> values;
+  private final String template;
+
+  private ForeachStatement(String param, List<String> values, String template) {
+    this.param = param;
+    this.values = values;
+    this.template = template;
+  }
+
+  /**
+   * 解析 foreach 语句
+   *
+   * @param sql 语句
+   * @return 解析结果，不是 foreach 语句时返回null
+   */
+  public static ForeachStatement parse(String sql) {
+    Matcher matcher = FOREACH_PATTERN.matcher(sql);
+    if (!matcher.matches()) {
+      return null;
+    }
+    return new ForeachStatement(
+        matcher.group(1), parseValues(matcher.group(2)), matcher.group(3).trim());
+  }
+
+  /** 按逗号分隔值列表，去掉空白和两侧的引号，忽略空值和重复的值 */
+  private static List<String> parseValues(String valueList) {
+    Set<String> values = new LinkedHashSet<>();
+    for (String value : valueList.split(",")) {
+      value = value.trim();
+      if (value.length() >= 2
+          && (value.startsWith("\"") && value.endsWith("\"")
+              || value.startsWith("'") && value.endsWith("'"))) {
+        value = value.substring(1, value.length() - 1);
+      }
+      if (!value.isEmpty()) {
+        values.add(value);
+      }
+    }
+    return new ArrayList<>(values);
+  }
+
+  public String getParam() {
+    return param;
+  }
+
+  public List<String> getValues() {
+    return values;
+  }
+
+  /** 模板中是否使用了参数 */
+  public boolean usesParam() {
+    return template.contains(placeholder());
+  }
+
+  /**
+   * 将模板中的参数替换为给定的值
+   *
+   * @param value 参数值
+   * @return 语句
+   */
+  public String expand(String value) {
+    return template.replace(placeholder(), value);
+  }
+
+  /**
+   * 合并各条语句查询结果的列。列按出现的顺序合并，不同结果中的同名列合并为一列；同一结果中重复出现的列按位置区分，第k次出现的列对应合并后该列名的第k列
+   *
+   * @param pathsList 每条语句查询结果的列名，没有查询结果时为null
+   * @param mergedPaths 用于输出合并后的列名
+   * @return 每条语句的每一列在合并后的位置，没有查询结果时为null
+   */
+  public static int[][] mergeColumns(List<List<String>> pathsList, List<String> mergedPaths) {
+    Map<String, List<Integer>> columnIndex = new HashMap<>();
+    int[][] positions = new int[pathsList.size()][];
+    for (int i = 0; i < pathsList.size(); i++) {
+      List<String> paths = pathsList.get(i);
+      if (paths == null) {
+        continue;
+      }
+      positions[i] = new int[paths.size()];
+      Map<String, Integer> occurrences = new HashMap<>();
+      for (int c = 0; c < paths.size(); c++) {
+        String path = paths.get(c);
+        int occurrence = occurrences.merge(path, 1, Integer::sum) - 1;
+        List<Integer> indexes = columnIndex.computeIfAbsent(path, p -> new ArrayList<>());
+        if (indexes.size() <= occurrence) {
+          indexes.add(mergedPaths.size());
+          mergedPaths.add(path);
+        }
+        positions[i][c] = indexes.get(occurrence);
+      }
+    }
+    return positions;
+  }
+
+  private String placeholder() {
+    return "#{" + param + "}";
+  }
+}
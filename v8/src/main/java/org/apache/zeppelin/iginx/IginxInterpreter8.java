@@ -1,12 +1,10 @@
 package org.apache.zeppelin.iginx;
 
-import static cn.edu.tsinghua.iginx.utils.FileUtils.exportByteStream;
 import static org.apache.zeppelin.iginx.SimpleFileServer.getLocalHostExactAddress;
 
 import cn.edu.tsinghua.iginx.constant.GlobalConstant;
 import cn.edu.tsinghua.iginx.exception.SessionException;
 import cn.edu.tsinghua.iginx.session.QueryDataSet;
-import cn.edu.tsinghua.iginx.session.Session;
 import cn.edu.tsinghua.iginx.session.SessionExecuteSqlResult;
 import cn.edu.tsinghua.iginx.thrift.LoadUDFResp;
 import cn.edu.tsinghua.iginx.thrift.SqlType;
@@ -14,19 +12,32 @@ import cn.edu.tsinghua.iginx.utils.FormatUtils;
 import cn.edu.tsinghua.iginx.utils.Pair;
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.security.InvalidParameterException;
+import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 import org.apache.commons.io.FileUtils;
 import org.apache.zeppelin.interpreter.*;
+import org.apache.zeppelin.interpreter.thrift.InterpreterCompletion;
+import org.apache.zeppelin.resource.ResourcePool;
+import org.apache.zeppelin.scheduler.Scheduler;
+import org.apache.zeppelin.scheduler.SchedulerFactory;
 
 public class IginxInterpreter8 extends Interpreter {
 
@@ -40,7 +51,38 @@ public class IginxInterpreter8 extends Interpreter {
   private static final String IGINX_OUTFILE_MAX_NUM = "iginx.outfile.max.num";
   private static final String IGINX_OUTFILE_MAX_SIZE = "iginx.outfile.max.size";
   private static final String IGINX_FILE_HTTP_PORT = "iginx.http.file.port";
+  private static final String IGINX_FILE_HTTP_SHARED = "iginx.http.file.shared";
+  private static final String IGINX_SHOWIMG_THUMBNAIL_SIZE = "iginx.showimg.thumbnail.size";
+  private static final String IGINX_SHOWIMG_MAX_NUM = "iginx.showimg.max.num";
+  private static final String IGINX_SHOWIMG_MAX_SIZE = "iginx.showimg.max.size";
+  private static final String IGINX_OUTPUT_MAX_SIZE = "iginx.output.max.size";
+  private static final String IGINX_OUTPUT_PREVIEW_ROWS = "iginx.output.preview.rows";
+  private static final String IGINX_EXPORT_WRITER_NUM = "iginx.export.writer.num";
+  private static final String IGINX_EXPORT_QUEUE_SIZE = "iginx.export.queue.size";
+  private static final String IGINX_STREAM_OUTPUT = "iginx.stream.output";
+  private static final String IGINX_CHART_MAX_POINTS = "iginx.chart.max.points";
+  private static final String IGINX_COMPLETION_REFRESH_INTERVAL =
+      "iginx.completion.refresh.interval";
+  private static final String IGINX_JOB_MAX_NUM = "iginx.job.max.num";
+  private static final String IGINX_OUTFILE_CACHE_TTL = "iginx.outfile.cache.ttl";
+  private static final String IGINX_DOWNLOAD_TOKEN_TTL = "iginx.download.token.ttl";
+  private static final String IGINX_ADMISSION_MAX_CONCURRENT = "iginx.admission.max.concurrent";
+  private static final String IGINX_ADMISSION_USER_MAX_CONCURRENT =
+      "iginx.admission.user.max.concurrent";
+  private static final String IGINX_ADMISSION_NOTE_MAX_CONCURRENT =
+      "iginx.admission.note.max.concurrent";
+  private static final String IGINX_ADMISSION_USER_WEIGHTS = "iginx.admission.user.weights";
+  private static final String IGINX_EXPORT_USER_MAX_BANDWIDTH = "iginx.export.user.max.bandwidth";
+  private static final String IGINX_SCHEDULER_MAX_CONCURRENT = "iginx.scheduler.max.concurrent";
+  private static final String IGINX_UDF_REGISTRY_FILE = "iginx.udf.registry.file";
+  private static final String IGINX_SHARE_DIR = "iginx.share.dir";
+  private static final String IGINX_FOREACH_MAX_PARALLEL = "iginx.foreach.max.parallel";
   private static final String IGINX_ZEPPELIN_IP = "iginx.zeppelin.ip";
+  private static final String IGINX_ENDPOINTS = "iginx.endpoints";
+  private static final String IGINX_LOAD_BALANCE_POLICY = "iginx.load.balance.policy";
+  private static final String IGINX_SESSION_POOL_SIZE = "iginx.session.pool.size";
+  private static final String IGINX_ENDPOINT_RETRY_INTERVAL = "iginx.endpoint.retry.interval";
+  private static final String IGINX_SESSION_ACQUIRE_TIMEOUT = "iginx.session.acquire.timeout";
 
   private static final String DEFAULT_HOST = "127.0.0.1";
   private static final String DEFAULT_PORT = "6888";
@@ -52,6 +94,34 @@ public class IginxInterpreter8 extends Interpreter {
   private static final String DEFAULT_OUTFILE_MAX_NUM = "100";
   private static final String DEFAULT_OUTFILE_MAX_SIZE = "10240";
   private static final String DEFAULT_FILE_HTTP_PORT = "18082";
+  private static final String DEFAULT_FILE_HTTP_SHARED = "true";
+  private static final String DEFAULT_SHOWIMG_THUMBNAIL_SIZE = "256";
+  private static final String DEFAULT_SHOWIMG_MAX_NUM = "50";
+  private static final String DEFAULT_SHOWIMG_MAX_SIZE = "5120";
+  private static final String DEFAULT_OUTPUT_MAX_SIZE = "1024";
+  private static final String DEFAULT_OUTPUT_PREVIEW_ROWS = "1000";
+  private static final String DEFAULT_EXPORT_WRITER_NUM = "1";
+  private static final String DEFAULT_EXPORT_QUEUE_SIZE = "4";
+  private static final String DEFAULT_STREAM_OUTPUT = "false";
+  private static final String DEFAULT_CHART_MAX_POINTS = "2000";
+  private static final String DEFAULT_COMPLETION_REFRESH_INTERVAL = "600000";
+  private static final String DEFAULT_JOB_MAX_NUM = "100";
+  private static final String DEFAULT_OUTFILE_CACHE_TTL = "0";
+  private static final String DEFAULT_DOWNLOAD_TOKEN_TTL = "600000";
+  private static final String DEFAULT_ADMISSION_MAX_CONCURRENT = "0";
+  private static final String DEFAULT_ADMISSION_USER_MAX_CONCURRENT = "0";
+  private static final String DEFAULT_ADMISSION_NOTE_MAX_CONCURRENT = "0";
+  private static final String DEFAULT_ADMISSION_USER_WEIGHTS = "";
+  private static final String DEFAULT_EXPORT_USER_MAX_BANDWIDTH = "0";
+  private static final String DEFAULT_SCHEDULER_MAX_CONCURRENT = "50";
+  private static final String DEFAULT_UDF_REGISTRY_FILE = "";
+  private static final String DEFAULT_SHARE_DIR = "";
+  private static final String DEFAULT_FOREACH_MAX_PARALLEL = "4";
+  private static final String DEFAULT_ENDPOINTS = "";
+  private static final String DEFAULT_LOAD_BALANCE_POLICY = IginxSessionPool.POLICY_LEAST_REQUESTS;
+  private static final String DEFAULT_SESSION_POOL_SIZE = "4";
+  private static final String DEFAULT_ENDPOINT_RETRY_INTERVAL = "30000";
+  private static final String DEFAULT_SESSION_ACQUIRE_TIMEOUT = "30000";
 
   private static final String TAB = "\t";
   private static final String NEWLINE = "\n";
@@ -60,6 +130,19 @@ public class IginxInterpreter8 extends Interpreter {
   private static final String SEMICOLON = ";";
   private static final String SUCCESS = "Success!";
   private static final String NO_DATA_TO_PRINT = "No data to print.\n";
+  private static final String STREAM_RESULT_FILE = "result.tsv";
+  private static final int COMPLETION_MAX_RESULTS = 100;
+  private static final String ZIP_NAME = "all_file.zip";
+
+  // 后台任务相关的命令
+  private static final Pattern SUBMIT_ASYNC_PATTERN =
+      Pattern.compile("(?i)^submit\\s+async\\s+(.+)$");
+  private static final Pattern SHOW_JOBS_PATTERN = Pattern.compile("(?i)^show\\s+jobs\\s*;$");
+  // 将查询结果共享给其他解释器
+  private static final Pattern SHARE_PATTERN =
+      Pattern.compile("(?i)^share\\s+as\\s+([\\w.-]+)\\s+(.+)$");
+  private static final Pattern FETCH_JOB_PATTERN =
+      Pattern.compile("(?i)^fetch\\s+job\\s+(\\d+)\\s*;$");
 
   private String host = "";
   private int port = 0;
@@ -71,23 +154,80 @@ public class IginxInterpreter8 extends Interpreter {
   private int outfileMaxNum = 0;
   private int outfileMaxSize = 0;
   private int fileHttpPort = 0;
-  private String localIpAddress = "";
-
-  private Queue<String> downloadFileQueue = new LinkedList<>();
-  private Queue<Double> downloadFileSizeQueue = new LinkedList<>();
-  private double downloadFileTotalSize = 0L;
+  private boolean fileHttpShared = true;
+  private int showimgThumbnailSize = 0;
+  private int showimgMaxNum = 0;
+  private int showimgMaxSize = 0;
+  private int outputMaxSize = 0;
+  private int outputPreviewRows = 0;
+  private int exportWriterNum = 0;
+  private int exportQueueSize = 0;
+  private boolean streamOutput = false;
+  private int chartMaxPoints = 0;
+  private long completionRefreshInterval = 0;
+  private int jobMaxNum = 0;
+  private long outfileCacheTtl = 0;
+  private long downloadTokenTtl = 0;
+  private int admissionMaxConcurrent = 0;
+  private int admissionUserMaxConcurrent = 0;
+  private int admissionNoteMaxConcurrent = 0;
+  private String admissionUserWeights = "";
+  private int exportUserMaxBandwidth = 0;
+  private String udfRegistryFile = "";
+  private String shareDir = "";
+  private int foreachMaxParallel = 0;
+  private CompletableFuture<String> localIpAddress;
+  private String endpoints = "";
+  private String loadBalancePolicy = "";
+  private int sessionPoolSize = 0;
+  private long endpointRetryInterval = 0;
+  private long sessionAcquireTimeout = 0;
+
+  // 同一进程中使用同一下载文件夹的解释器实例共用，由loadNGINXStaticFilesInfo在后台获取
+  private volatile DownloadStore downloadStore;
 
   private String outfileRegex =
-      "(?i)(\\bINTO\\s+OUTFILE\\s+\")(.*?)(\"\\s+AS\\s+STREAM)(?:\\s+showimg\\s+(true|false))?\\s*;$";
+      "(?i)(\\bINTO\\s+OUTFILE\\s+\")(.*?)(\"\\s+AS\\s+STREAM)(?:\\s+showimg\\s+(true|false))?(?:\\s+ondownload\\s+(true|false))?\\s*;$";
+  private static final Pattern OUTFILE_CLAUSE_PATTERN =
+      Pattern.compile("(?i)\\bINTO\\s+OUTFILE\\s+\"");
+
+  // 并行调度器的名称，每个解释器实例唯一，关闭时移除
+  private static final AtomicLong schedulerIds = new AtomicLong();
+  private final String schedulerName =
+      IginxInterpreter8.class.getName() + "-" + schedulerIds.incrementAndGet();
+  private volatile boolean parallelSchedulerCreated = false;
 
   private static Map<String, CompletableFuture<InterpreterResult>> taskMap =
       new ConcurrentHashMap<>();
 
-  private Session session;
+  // 执行段落的线程，排队等待准入的段落会阻塞线程，因此不使用公共线程池
+  private static final ExecutorService paragraphExecutor =
+      Executors.newCachedThreadPool(new DaemonThreadFactory("iginx-paragraph-"));
+  // 并行执行 foreach 展开后的语句的线程
+  private static final ExecutorService foreachExecutor =
+      Executors.newCachedThreadPool(new DaemonThreadFactory("iginx-foreach-"));
+
+  private IginxSessionPool sessionPool;
+
+  private volatile Exception exception;
 
-  private Exception exception;
+  // 启动时的后台任务，interpret只等待自己需要的部分
+  private CompletableFuture<Void> sessionReady;
+  private CompletableFuture<Void> fileServerReady;
+  private CompletableFuture<Void> downloadStoreReady;
 
-  private SimpleFileServer fileServer;
+  private volatile SimpleFileServer fileServer;
+
+  private volatile SqlCompleter sqlCompleter;
+  private final SqlCompleter.Loader completionLoader = this::refreshCompletion;
+  private AsyncJobRegistry jobRegistry;
+  // 同一进程中使用同一下载文件夹的解释器实例共用导出结果索引和数据版本
+  private OutfileIndex outfileIndex;
+  private AdmissionController admissionController;
+  private UdfRegistry udfRegistry;
+  // 通过 share as 共享的结果，名称到资源池和文件的映射，关闭解释器时清理
+  private final Map<String, SharedResult> sharedResults = new ConcurrentHashMap<>();
+  private TableRenderer tableRenderer;
 
   // 返回结果为单个表格的语句
   private static final List<SqlType> singleFormSqlType =
@@ -98,6 +238,10 @@ public class IginxInterpreter8 extends Interpreter {
           SqlType.GetReplicaNum,
           SqlType.ShowRegisterTask);
 
+  // 按时间序列绘制的图表类型，查询结果需要降采样
+  private static final List<String> timeSeriesChartModes =
+      Arrays.asList("lineChart", "stackedAreaChart", "scatterChart");
+
   public IginxInterpreter8(Properties properties) {
     super(properties);
   }
@@ -109,6 +253,7 @@ public class IginxInterpreter8 extends Interpreter {
     username = properties.getProperty(IGINX_USERNAME, DEFAULT_USERNAME).trim();
     password = properties.getProperty(IGINX_PASSWORD, DEFAULT_PASSWORD).trim();
     timePrecision = properties.getProperty(IGINX_TIME_PRECISION, DEFAULT_TIME_PRECISION).trim();
+    tableRenderer = new TableRenderer(timePrecision);
     outfileDir = properties.getProperty(IGINX_OUTFILE_DIR, DEFAULT_OUTFILE_DIR).trim();
     fetchSize = properties.getProperty(IGINX_FETCH_SIZE, DEFAULT_FETCH_SIZE).trim();
     outfileMaxNum =
@@ -120,47 +265,312 @@ public class IginxInterpreter8 extends Interpreter {
     fileHttpPort =
         Integer.parseInt(
             properties.getProperty(IGINX_FILE_HTTP_PORT, DEFAULT_FILE_HTTP_PORT).trim());
+    fileHttpShared =
+        Boolean.parseBoolean(
+            properties.getProperty(IGINX_FILE_HTTP_SHARED, DEFAULT_FILE_HTTP_SHARED).trim());
+    showimgThumbnailSize =
+        Integer.parseInt(
+            properties
+                .getProperty(IGINX_SHOWIMG_THUMBNAIL_SIZE, DEFAULT_SHOWIMG_THUMBNAIL_SIZE)
+                .trim());
+    showimgMaxNum =
+        Integer.parseInt(
+            properties.getProperty(IGINX_SHOWIMG_MAX_NUM, DEFAULT_SHOWIMG_MAX_NUM).trim());
+    showimgMaxSize =
+        Integer.parseInt(
+            properties.getProperty(IGINX_SHOWIMG_MAX_SIZE, DEFAULT_SHOWIMG_MAX_SIZE).trim());
+    outputMaxSize =
+        Integer.parseInt(
+            properties.getProperty(IGINX_OUTPUT_MAX_SIZE, DEFAULT_OUTPUT_MAX_SIZE).trim());
+    outputPreviewRows =
+        Integer.parseInt(
+            properties.getProperty(IGINX_OUTPUT_PREVIEW_ROWS, DEFAULT_OUTPUT_PREVIEW_ROWS).trim());
+    exportWriterNum =
+        Integer.parseInt(
+            properties.getProperty(IGINX_EXPORT_WRITER_NUM, DEFAULT_EXPORT_WRITER_NUM).trim());
+    exportQueueSize =
+        Integer.parseInt(
+            properties.getProperty(IGINX_EXPORT_QUEUE_SIZE, DEFAULT_EXPORT_QUEUE_SIZE).trim());
+    streamOutput =
+        Boolean.parseBoolean(
+            properties.getProperty(IGINX_STREAM_OUTPUT, DEFAULT_STREAM_OUTPUT).trim());
+    chartMaxPoints =
+        Integer.parseInt(
+            properties.getProperty(IGINX_CHART_MAX_POINTS, DEFAULT_CHART_MAX_POINTS).trim());
+    completionRefreshInterval =
+        Long.parseLong(
+            properties
+                .getProperty(IGINX_COMPLETION_REFRESH_INTERVAL, DEFAULT_COMPLETION_REFRESH_INTERVAL)
+                .trim());
+    jobMaxNum =
+        Integer.parseInt(properties.getProperty(IGINX_JOB_MAX_NUM, DEFAULT_JOB_MAX_NUM).trim());
+    jobRegistry = new AsyncJobRegistry(jobMaxNum);
+    outfileCacheTtl =
+        Long.parseLong(
+            properties.getProperty(IGINX_OUTFILE_CACHE_TTL, DEFAULT_OUTFILE_CACHE_TTL).trim());
+    // 即使本实例不复用导出结果，写入数据后也需要让共用下载文件夹的其他实例的缓存失效
+    outfileIndex = OutfileIndex.shared(outfileDir);
+    downloadTokenTtl =
+        Long.parseLong(
+            properties.getProperty(IGINX_DOWNLOAD_TOKEN_TTL, DEFAULT_DOWNLOAD_TOKEN_TTL).trim());
+    admissionMaxConcurrent =
+        Integer.parseInt(
+            properties
+                .getProperty(IGINX_ADMISSION_MAX_CONCURRENT, DEFAULT_ADMISSION_MAX_CONCURRENT)
+                .trim());
+    admissionUserMaxConcurrent =
+        Integer.parseInt(
+            properties
+                .getProperty(
+                    IGINX_ADMISSION_USER_MAX_CONCURRENT, DEFAULT_ADMISSION_USER_MAX_CONCURRENT)
+                .trim());
+    admissionNoteMaxConcurrent =
+        Integer.parseInt(
+            properties
+                .getProperty(
+                    IGINX_ADMISSION_NOTE_MAX_CONCURRENT, DEFAULT_ADMISSION_NOTE_MAX_CONCURRENT)
+                .trim());
+    admissionUserWeights =
+        properties.getProperty(IGINX_ADMISSION_USER_WEIGHTS, DEFAULT_ADMISSION_USER_WEIGHTS).trim();
+    exportUserMaxBandwidth =
+        Integer.parseInt(
+            properties
+                .getProperty(IGINX_EXPORT_USER_MAX_BANDWIDTH, DEFAULT_EXPORT_USER_MAX_BANDWIDTH)
+                .trim());
+    // 同一进程中的解释器实例共用准入控制器，限制对所有实例一起生效
+    admissionController =
+        AdmissionController.shared(
+            admissionMaxConcurrent,
+            admissionUserMaxConcurrent,
+            admissionNoteMaxConcurrent,
+            admissionUserWeights,
+            exportUserMaxBandwidth * 1024L);
+    udfRegistryFile =
+        properties.getProperty(IGINX_UDF_REGISTRY_FILE, DEFAULT_UDF_REGISTRY_FILE).trim();
+    udfRegistry = new UdfRegistry(udfRegistryFile.isEmpty() ? null : new File(udfRegistryFile));
+    shareDir = properties.getProperty(IGINX_SHARE_DIR, DEFAULT_SHARE_DIR).trim();
+    if (shareDir.isEmpty()) {
+      shareDir = new File(System.getProperty("java.io.tmpdir"), "iginx-share").getPath();
+    }
+    foreachMaxParallel =
+        Integer.parseInt(
+            properties
+                .getProperty(IGINX_FOREACH_MAX_PARALLEL, DEFAULT_FOREACH_MAX_PARALLEL)
+                .trim());
+    endpoints = properties.getProperty(IGINX_ENDPOINTS, DEFAULT_ENDPOINTS).trim();
+    loadBalancePolicy =
+        properties
+            .getProperty(IGINX_LOAD_BALANCE_POLICY, DEFAULT_LOAD_BALANCE_POLICY)
+            .trim()
+            .toLowerCase();
+    sessionPoolSize =
+        Integer.parseInt(
+            properties.getProperty(IGINX_SESSION_POOL_SIZE, DEFAULT_SESSION_POOL_SIZE).trim());
+    endpointRetryInterval =
+        Long.parseLong(
+            properties
+                .getProperty(IGINX_ENDPOINT_RETRY_INTERVAL, DEFAULT_ENDPOINT_RETRY_INTERVAL)
+                .trim());
+    sessionAcquireTimeout =
+        Long.parseLong(
+            properties
+                .getProperty(IGINX_SESSION_ACQUIRE_TIMEOUT, DEFAULT_SESSION_ACQUIRE_TIMEOUT)
+                .trim());
+
+    // 获取本机地址需要遍历所有网卡，放到后台执行，只有生成下载链接时才需要等待
+    localIpAddress =
+        CompletableFuture.supplyAsync(
+            () -> {
+              String address = getLocalHostExactAddress();
+              return address == null ? "127.0.0.1" : address;
+            });
+
+    sessionPool = createSessionPool();
+    // 建立会话、启动文件服务、扫描下载文件夹互不依赖，并行在后台执行，open立即返回
+    sessionReady =
+        CompletableFuture.runAsync(
+            () -> {
+              try {
+                sessionPool.open();
+              } catch (SessionException e) {
+                exception = e;
+                System.out.println("Can not open session successfully.");
+              }
+            });
+
+    // 同一进程内的解释器实例共用一个文件服务，其他进程已占用端口时注册到该进程的文件服务中
+    fileServerReady =
+        CompletableFuture.runAsync(
+            () -> {
+              try {
+                fileServer = SimpleFileServer.acquire(fileHttpPort, outfileDir, fileHttpShared);
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+            });
+    downloadStoreReady =
+        CompletableFuture.runAsync(
+            () -> {
+              try {
+                loadNGINXStaticFilesInfo();
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+            });
 
-    localIpAddress = getLocalHostExactAddress();
-    if (localIpAddress == null) {
-      localIpAddress = "127.0.0.1";
+    // 连接同一组节点的同一用户的解释器实例共用补全缓存，由一个后台线程定期刷新，补全时不访问IGinX
+    List<String> endpointNames = new ArrayList<>();
+    for (IginxSessionPool.Endpoint endpoint :
+        IginxSessionPool.parseEndpoints(endpoints, host, port, sessionPoolSize)) {
+      endpointNames.add(endpoint.toString());
     }
+    Collections.sort(endpointNames);
+    sqlCompleter =
+        SqlCompleter.acquire(
+            endpointNames + "/" + username,
+            COMPLETION_MAX_RESULTS,
+            completionRefreshInterval,
+            completionLoader);
+  }
 
-    session = new Session(host, port, username, password);
-    try {
-      session.openSession();
-    } catch (SessionException e) {
-      exception = e;
-      System.out.println("Can not open session successfully.");
+  /**
+   * 从IGinX获取所有序列路径和自定义函数名，更新补全缓存
+   *
+   * @param completer 补全缓存
+   * @throws Exception 会话未建立或查询失败
+   */
+  private void refreshCompletion(SqlCompleter completer) throws Exception {
+    sessionReady.join();
+    if (exception != null) {
+      throw exception;
+    }
+    try (IginxSessionPool.Lease lease = sessionPool.acquire()) {
+      SessionExecuteSqlResult columnsResult = lease.call(s -> s.executeSql("show columns;"));
+      if (columnsResult.getPaths() != null) {
+        completer.updatePaths(columnsResult.getPaths());
+      }
+
+      List<String> udfNames = listFunctionNames(lease);
+      if (!udfNames.isEmpty()) {
+        completer.updateFunctions(udfNames);
+      }
     }
+  }
 
+  /**
+   * 查询IGinX中已注册的UDF名称
+   *
+   * @param lease 会话租约
+   * @return UDF名称
+   * @throws SessionException 查询失败
+   */
+  private List<String> listFunctionNames(IginxSessionPool.Lease lease) throws SessionException {
+    SessionExecuteSqlResult functionsResult = lease.call(s -> s.executeSql("show functions;"));
+    List<List<String>> functionList =
+        functionsResult.getResultInList(true, FormatUtils.DEFAULT_TIME_FORMAT, timePrecision);
+    List<String> udfNames = new ArrayList<>();
+    if (functionList != null && !functionList.isEmpty()) {
+      // 第一行是表头，函数名在NAME列
+      int nameIndex = 0;
+      for (int i = 0; i < functionList.get(0).size(); i++) {
+        if (functionList.get(0).get(i).equalsIgnoreCase("name")) {
+          nameIndex = i;
+        }
+      }
+      for (List<String> row : functionList.subList(1, functionList.size())) {
+        udfNames.add(row.get(nameIndex));
+      }
+    }
+    return udfNames;
+  }
+
+  /** 按配置创建会话池，测试中可覆盖以免连接IGinX */
+  IginxSessionPool createSessionPool() {
+    return new IginxSessionPool(
+        IginxSessionPool.parseEndpoints(endpoints, host, port, sessionPoolSize),
+        username,
+        password,
+        loadBalancePolicy,
+        endpointRetryInterval,
+        sessionAcquireTimeout);
+  }
+
+  /** 等待文件服务启动以及下载文件夹扫描完成，导出文件前需要调用 */
+  void awaitDownloadStore() throws IOException {
     try {
-      fileServer = new SimpleFileServer(fileHttpPort, outfileDir);
-      fileServer.start();
-      loadNGINXStaticFilesInfo();
-    } catch (IOException e) {
-      throw new RuntimeException(e);
+      CompletableFuture.allOf(fileServerReady, downloadStoreReady).join();
+    } catch (CompletionException e) {
+      throw new IOException("File server is not ready: " + e.getCause().getMessage(), e.getCause());
     }
+    // 共用的其他进程的文件服务可能已经关闭，此时由本进程接替
+    fileServer.ensureAvailable();
   }
 
   @Override
   public void close() throws InterpreterException {
-    try {
-      if (session != null) {
-        session.closeSession();
+    if (parallelSchedulerCreated) {
+      SchedulerFactory.singleton().removeScheduler(schedulerName);
+      parallelSchedulerCreated = false;
+    }
+    if (sqlCompleter != null) {
+      sqlCompleter.release(completionLoader);
+      sqlCompleter = null;
+    }
+    if (sessionPool != null) {
+      sessionPool.close();
+    }
+    for (String name : new ArrayList<>(sharedResults.keySet())) {
+      unshare(name);
+    }
+    if (fileServerReady != null) {
+      // 文件服务可能还在后台启动，等待启动结束后再释放
+      try {
+        fileServerReady.join();
+      } catch (CompletionException ignored) {
       }
       if (fileServer != null) {
-        fileServer.stop();
+        fileServer.unregisterStreams(this);
+        fileServer.release(outfileDir);
+        fileServer = null;
+      }
+    }
+  }
+
+  /**
+   * Zeppelin默认的调度器对每个解释器实例按先进先出的顺序逐个执行段落，准入控制器的并发限制和公平排队不会生效，因此配置了准入限制时使用并行调度器，由准入控制器决定段落的执行顺序。
+   * 没有配置准入限制时仍使用默认调度器，保证"运行全部"时先写后读的段落按顺序执行。调度器可能在open之前获取，因此直接读取配置
+   */
+  @Override
+  public Scheduler getScheduler() {
+    if (!hasAdmissionLimit()) {
+      return super.getScheduler();
+    }
+    int maxConcurrent =
+        Integer.parseInt(
+            getProperty(IGINX_SCHEDULER_MAX_CONCURRENT, DEFAULT_SCHEDULER_MAX_CONCURRENT).trim());
+    parallelSchedulerCreated = true;
+    return SchedulerFactory.singleton().createOrGetParallelScheduler(schedulerName, maxConcurrent);
+  }
+
+  /** 是否配置了任一准入并发限制 */
+  private boolean hasAdmissionLimit() {
+    for (String[] property :
+        new String[][] {
+          {IGINX_ADMISSION_MAX_CONCURRENT, DEFAULT_ADMISSION_MAX_CONCURRENT},
+          {IGINX_ADMISSION_USER_MAX_CONCURRENT, DEFAULT_ADMISSION_USER_MAX_CONCURRENT},
+          {IGINX_ADMISSION_NOTE_MAX_CONCURRENT, DEFAULT_ADMISSION_NOTE_MAX_CONCURRENT}
+        }) {
+      if (Integer.parseInt(getProperty(property[0], property[1]).trim()) > 0) {
+        return true;
       }
-    } catch (SessionException e) {
-      exception = e;
-      System.out.println("Can not close session successfully.");
     }
+    return false;
   }
 
   @Override
   public InterpreterResult interpret(String st, InterpreterContext context)
       throws InterpreterException {
+    sessionReady.join();
     if (exception != null) {
       return new InterpreterResult(InterpreterResult.Code.ERROR, exception.getMessage());
     }
@@ -193,64 +603,673 @@ public class IginxInterpreter8 extends Interpreter {
     CompletableFuture<InterpreterResult> future = new CompletableFuture<>();
     taskMap.put(paragraphId, future);
 
+    String user =
+        context.getAuthenticationInfo() != null ? context.getAuthenticationInfo().getUser() : null;
+    String noteId = context.getNoteId();
     CompletableFuture.runAsync(
         () -> {
-          InterpreterResult interpreterResult = null;
-          for (String cmd : sqlList) {
-            interpreterResult = processSql(cmd);
-            if (isSessionClosedError(interpreterResult)) {
-              if (reopenSession()) {
-                // 暂停，等待连接建立
-                interpreterResult = processSql(cmd);
-              } else {
-                interpreterResult.add(
-                    InterpreterResult.Type.TEXT,
-                    "Can not reopen session successfully, please check IGinX Server.");
-              }
+          // 超出并发限制时排队等待，段落被取消后不再等待
+          AdmissionController.Ticket ticket;
+          try {
+            ticket = admissionController.acquire(user, noteId, future::isDone);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.complete(new InterpreterResult(InterpreterResult.Code.ERROR, e.getMessage()));
+            return;
+          }
+          if (ticket == null) {
+            return;
+          }
+          try {
+            InterpreterResult interpreterResult = null;
+            for (int i = 0; i < sqlList.length; i++) {
+              // 段落只展示最后一条语句的结果，因此只有最后一条语句的结果会流式输出
+              interpreterResult =
+                  processStatement(
+                      sqlList[i],
+                      context.getResourcePool(),
+                      i == sqlList.length - 1 ? context : null);
             }
+            addQueueWaitMessage(interpreterResult, ticket);
+            future.complete(interpreterResult);
+          } catch (Exception e) {
+            future.complete(
+                new InterpreterResult(
+                    InterpreterResult.Code.ERROR,
+                    "encounter error when executing sql statement:\n" + e.getMessage()));
+          } finally {
+            ticket.close();
           }
-          future.complete(interpreterResult);
-        });
+        },
+        paragraphExecutor);
 
     return future;
   }
 
-  private InterpreterResult processSql(String sql) {
+  /** 段落排队等待过时，在结果中展示等待时间 */
+  private void addQueueWaitMessage(
+      InterpreterResult interpreterResult, AdmissionController.Ticket ticket) {
+    if (interpreterResult == null || !ticket.isQueued()) {
+      return;
+    }
+    interpreterResult.add(
+        InterpreterResult.Type.TEXT,
+        String.format(
+            "超出并发限制，排队等待 %.1f 秒后开始执行（当前执行 %d 个段落，排队 %d 个段落）。",
+            ticket.getWaitMs() / 1000.0,
+            admissionController.getRunning(),
+            admissionController.getWaiting()));
+  }
+
+  /**
+   * 执行一条语句，后台任务相关的命令由解释器处理，其他语句发送给IGinX执行
+   *
+   * @param sql sql语句
+   * @param resourcePool 段落所在的资源池，用于共享查询结果
+   * @param context 用于流式输出结果的InterpreterContext，为null时不流式输出
+   * @return InterpreterResult
+   */
+  private InterpreterResult processStatement(
+      String sql, ResourcePool resourcePool, InterpreterContext context) {
+    Matcher shareMatcher = SHARE_PATTERN.matcher(sql);
+    if (shareMatcher.matches()) {
+      return processShare(shareMatcher.group(1), shareMatcher.group(2), resourcePool);
+    }
+    ForeachStatement foreachStatement = ForeachStatement.parse(sql);
+    if (foreachStatement != null) {
+      return processForeach(foreachStatement, context != null ? context.getParagraphId() : null);
+    }
+    // 后台任务与提交它的段落属于同一用户和笔记，同样受并发限制，用户只能查看自己提交的任务
+    AdmissionController.Ticket owner = AdmissionController.currentTicket();
+    String user = owner != null ? owner.getUser() : null;
+    Matcher submitMatcher = SUBMIT_ASYNC_PATTERN.matcher(sql);
+    if (submitMatcher.matches()) {
+      String noteId = owner != null ? owner.getNoteId() : null;
+      AsyncJobRegistry.Job job =
+          jobRegistry.submit(submitMatcher.group(1), user, j -> runAsyncJob(j, user, noteId));
+      return new InterpreterResult(
+          InterpreterResult.Code.SUCCESS,
+          String.format(
+              "已提交后台任务 %d，使用 show jobs; 查看任务状态，使用 fetch job %d; 获取结果。", job.getId(), job.getId()));
+    }
+    if (SHOW_JOBS_PATTERN.matcher(sql).matches()) {
+      InterpreterResult interpreterResult = new InterpreterResult(InterpreterResult.Code.SUCCESS);
+      interpreterResult.add(InterpreterResult.Type.TABLE, buildJobsResult(user));
+      return interpreterResult;
+    }
+    Matcher fetchMatcher = FETCH_JOB_PATTERN.matcher(sql);
+    if (fetchMatcher.matches()) {
+      long id;
+      try {
+        id = Long.parseLong(fetchMatcher.group(1));
+      } catch (NumberFormatException e) {
+        return new InterpreterResult(
+            InterpreterResult.Code.ERROR, String.format("后台任务 %s 不存在。", fetchMatcher.group(1)));
+      }
+      return fetchJobResult(id, user);
+    }
+    return processSqlWithFailover(sql, context);
+  }
+
+  /**
+   * 执行查询，将结果写成按列存储的文件，并以给定的名称将文件的描述放入资源池。其他解释器通过 z.get(name) 获取描述后，可以内存映射文件直接读取数据。
+   * 同名的结果会被替换，旧文件会被删除。
+   *
+   * @param name 共享的名称
+   * @param query 查询语句
+   * @param resourcePool 资源池
+   * @return InterpreterResult
+   */
+  private InterpreterResult processShare(String name, String query, ResourcePool resourcePool) {
+    if (resourcePool == null) {
+      return new InterpreterResult(InterpreterResult.Code.ERROR, "当前环境没有可用的资源池，无法共享结果。");
+    }
+    try (IginxSessionPool.Lease lease = sessionPool.acquire()) {
+      SessionExecuteSqlResult sqlResult = lease.call(s -> s.executeSql(query));
+      String parseErrorMsg = sqlResult.getParseErrorMsg();
+      if (parseErrorMsg != null && !parseErrorMsg.equals("")) {
+        return new InterpreterResult(InterpreterResult.Code.ERROR, parseErrorMsg);
+      }
+      if (sqlResult.getSqlType() != SqlType.Query
+          || sqlResult.getPaths() == null
+          || sqlResult.getValues() == null) {
+        return new InterpreterResult(InterpreterResult.Code.ERROR, "只能共享 select 查询的结果。");
+      }
+
+      Files.createDirectories(Paths.get(shareDir));
+      File file =
+          new File(shareDir, name + "-" + UUID.randomUUID().toString().substring(0, 12) + ".igc");
+      String descriptor;
+      try {
+        descriptor =
+            ColumnarResultWriter.write(
+                file, sqlResult.getKeys(), sqlResult.getPaths(), sqlResult.getValues());
+      } catch (IOException | RuntimeException e) {
+        // 写入失败时删除不完整的文件
+        Files.deleteIfExists(file.toPath());
+        throw e;
+      }
+      unshare(name);
+      resourcePool.put(name, descriptor);
+      sharedResults.put(name, new SharedResult(resourcePool, file));
+
+      return new InterpreterResult(
+          InterpreterResult.Code.SUCCESS,
+          String.format(
+              "已共享 %d 行 %d 列为 %s，在其他解释器中使用 z.get(\"%s\") 获取文件描述。",
+              sqlResult.getValues().size(), sqlResult.getPaths().size(), name, name));
+    } catch (SessionException | IOException | RuntimeException e) {
+      return new InterpreterResult(InterpreterResult.Code.ERROR, "Error: " + e.getMessage());
+    }
+  }
+
+  /**
+   * 将 foreach 语句的模板展开为每个参数值对应的语句并行执行，并行数不超过 iginx.foreach.max.parallel。每条语句与普通语句一样执行，会话断开时换节点重试，
+   * 也支持导出等语句。第一个线程使用段落的准入凭证，其他线程每执行一条语句都需要不等待地获取额外的准入凭证，无法获取时不再并行，因此 foreach
+   * 同样受准入控制的并发限制。查询结果合并为一个表格，第一列为参数值；其他语句的结果按参数值依次列出；执行失败的参数值单独列出错误信息，不影响其他参数值。
+   *
+   * @param statement foreach 语句
+   * @param paragraphId 段落ID，用于命名结果过大时的下载文件夹
+   * @return InterpreterResult
+   */
+  private InterpreterResult processForeach(ForeachStatement statement, String paragraphId) {
+    List<String> values = statement.getValues();
+    if (values.isEmpty()) {
+      return new InterpreterResult(InterpreterResult.Code.ERROR, "foreach 的参数值列表为空。");
+    }
+    if (!statement.usesParam()) {
+      return new InterpreterResult(
+          InterpreterResult.Code.ERROR, String.format("语句模板中没有使用参数 #{%s}。", statement.getParam()));
+    }
+
+    SessionExecuteSqlResult[] results = new SessionExecuteSqlResult[values.size()];
+    InterpreterResult[] otherResults = new InterpreterResult[values.size()];
+    String[] errors = new String[values.size()];
+    AtomicInteger nextIndex = new AtomicInteger();
+    AdmissionController.Ticket owner = AdmissionController.currentTicket();
+    List<Future<?>> workers = new ArrayList<>();
+    for (int w = 0; w < Math.max(1, Math.min(foreachMaxParallel, values.size())); w++) {
+      boolean primary = w == 0;
+      workers.add(
+          foreachExecutor.submit(
+              () -> {
+                // 第一个线程在段落的凭证下执行，直到所有参数值执行完
+                AdmissionController.Binding binding =
+                    primary && owner != null ? owner.bind() : null;
+                try {
+                  while (nextIndex.get() < values.size()) {
+                    AdmissionController.Ticket extra = null;
+                    if (!primary) {
+                      extra =
+                          admissionController.tryAcquire(
+                              owner != null ? owner.getUser() : null,
+                              owner != null ? owner.getNoteId() : null);
+                      if (extra == null) {
+                        return;
+                      }
+                    }
+                    try {
+                      int i = nextIndex.getAndIncrement();
+                      if (i < values.size()) {
+                        runForeachValue(statement, values.get(i), i, results, otherResults, errors);
+                      }
+                    } finally {
+                      if (extra != null) {
+                        extra.close();
+                      }
+                    }
+                  }
+                } finally {
+                  if (binding != null) {
+                    binding.close();
+                  }
+                }
+              }));
+    }
+    for (Future<?> worker : workers) {
+      try {
+        worker.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return new InterpreterResult(InterpreterResult.Code.ERROR, e.getMessage());
+      } catch (ExecutionException e) {
+        return new InterpreterResult(InterpreterResult.Code.ERROR, e.getCause().getMessage());
+      }
+    }
+
+    int failedNum = 0;
+    StringBuilder failures = new StringBuilder();
+    for (int i = 0; i < values.size(); i++) {
+      if (errors[i] != null) {
+        failedNum++;
+        // 错误信息中的制表符和换行会破坏表格
+        failures
+            .append(values.get(i))
+            .append(TAB)
+            .append(errors[i].replace(TAB, WHITESPACE).replace(NEWLINE, WHITESPACE))
+            .append(NEWLINE);
+      }
+    }
+    InterpreterResult interpreterResult =
+        new InterpreterResult(
+            failedNum == values.size()
+                ? InterpreterResult.Code.ERROR
+                : InterpreterResult.Code.SUCCESS);
+    List<List<String>> table = buildForeachTable(statement.getParam(), values, results);
+    if (table != null) {
+      interpreterResult.add(InterpreterResult.Type.TABLE, tableRenderer.renderList(table));
+    }
+    for (int i = 0; i < values.size(); i++) {
+      if (otherResults[i] == null || isPlainSuccess(otherResults[i])) {
+        continue;
+      }
+      interpreterResult.add(
+          InterpreterResult.Type.TEXT,
+          String.format("%s = %s：", statement.getParam(), values.get(i)));
+      for (InterpreterResultMessage message : otherResults[i].message()) {
+        interpreterResult.add(message.getType(), message.getData());
+      }
+    }
+    interpreterResult.add(
+        InterpreterResult.Type.TEXT,
+        String.format(
+            "共 %d 个参数值，成功 %d 个，失败 %d 个。", values.size(), values.size() - failedNum, failedNum));
+    if (failedNum > 0) {
+      interpreterResult.add(
+          InterpreterResult.Type.TABLE, statement.getParam() + TAB + "错误信息" + NEWLINE + failures);
+    }
+    try {
+      return spillOversizedResult(interpreterResult, paragraphId);
+    } catch (IOException e) {
+      return new InterpreterResult(InterpreterResult.Code.ERROR, "Error: " + e.getMessage());
+    }
+  }
+
+  /** 执行一个参数值对应的语句，按结果类型记录到对应的数组中 */
+  private void runForeachValue(
+      ForeachStatement statement,
+      String value,
+      int i,
+      SessionExecuteSqlResult[] results,
+      InterpreterResult[] otherResults,
+      String[] errors) {
+    SessionExecuteSqlResult[] rawResult = new SessionExecuteSqlResult[1];
+    try {
+      InterpreterResult interpreterResult =
+          processSqlWithFailover(statement.expand(value), null, rawResult);
+      if (interpreterResult.code() != InterpreterResult.Code.SUCCESS) {
+        StringBuilder error = new StringBuilder();
+        for (InterpreterResultMessage message : interpreterResult.message()) {
+          error.append(message.getData()).append(WHITESPACE);
+        }
+        errors[i] = error.toString().trim();
+      } else if (isQueryResult(rawResult[0])) {
+        results[i] = rawResult[0];
+      } else {
+        otherResults[i] = interpreterResult;
+      }
+    } catch (Exception e) {
+      errors[i] = e.getMessage() != null ? e.getMessage() : e.toString();
+    }
+  }
+
+  /**
+   * 按参数值的顺序合并查询结果，第一列为参数值，各参数值查询到的列按 {@link ForeachStatement#mergeColumns} 合并，没有该列的行为空
+   *
+   * @param param 参数名
+   * @param values 参数值
+   * @param results 每个参数值的执行结果，执行失败时为null
+   * @return 第一行为表头的表格，没有查询结果时返回null
+   */
+  private List<List<String>> buildForeachTable(
+      String param, List<String> values, SessionExecuteSqlResult[] results) {
+    boolean hasQuery = false;
+    boolean hasKey = false;
+    List<List<String>> pathsList = new ArrayList<>();
+    for (SessionExecuteSqlResult result : results) {
+      if (!isQueryResult(result)) {
+        pathsList.add(null);
+        continue;
+      }
+      hasQuery = true;
+      hasKey |= result.getKeys() != null;
+      pathsList.add(result.getPaths());
+    }
+    if (!hasQuery) {
+      return null;
+    }
+    List<String> mergedPaths = new ArrayList<>();
+    int[][] positions = ForeachStatement.mergeColumns(pathsList, mergedPaths);
+
+    List<List<String>> table = new ArrayList<>();
+    List<String> header = new ArrayList<>();
+    header.add(param);
+    if (hasKey) {
+      header.add(GlobalConstant.KEY_NAME);
+    }
+    header.addAll(mergedPaths);
+    table.add(header);
+    int offset = hasKey ? 2 : 1;
+    for (int i = 0; i < results.length; i++) {
+      SessionExecuteSqlResult result = results[i];
+      if (!isQueryResult(result)) {
+        continue;
+      }
+      for (int r = 0; r < result.getValues().size(); r++) {
+        String[] row = new String[offset + mergedPaths.size()];
+        Arrays.fill(row, "");
+        row[0] = values.get(i);
+        if (result.getKeys() != null) {
+          row[1] =
+              FormatUtils.formatTime(
+                  result.getKeys()[r], FormatUtils.DEFAULT_TIME_FORMAT, timePrecision);
+        }
+        List<Object> rowValues = result.getValues().get(r);
+        for (int c = 0; c < positions[i].length; c++) {
+          row[offset + positions[i][c]] = FormatUtils.valueToString(rowValues.get(c));
+        }
+        table.add(Arrays.asList(row));
+      }
+    }
+    return table;
+  }
+
+  /** 结果只有执行成功的提示，没有需要展示的内容 */
+  private static boolean isPlainSuccess(InterpreterResult interpreterResult) {
+    List<InterpreterResultMessage> messages = interpreterResult.message();
+    return messages.isEmpty()
+        || messages.size() == 1 && SUCCESS.equals(messages.get(0).getData().trim());
+  }
+
+  private static boolean isQueryResult(SessionExecuteSqlResult result) {
+    return result != null
+        && result.getSqlType() == SqlType.Query
+        && result.getPaths() != null
+        && result.getValues() != null;
+  }
+
+  /** 移除共享的结果并删除文件，已经映射了文件的读取方不受影响 */
+  private void unshare(String name) {
+    SharedResult sharedResult = sharedResults.remove(name);
+    if (sharedResult == null) {
+      return;
+    }
+    sharedResult.resourcePool.remove(name);
+    if (!sharedResult.file.delete()) {
+      System.out.println("Can not delete shared result file: " + sharedResult.file);
+    }
+  }
+
+  private static class SharedResult {
+    private final ResourcePool resourcePool;
+    private final File file;
+
+    private SharedResult(ResourcePool resourcePool, File file) {
+      this.resourcePool = resourcePool;
+      this.file = file;
+    }
+  }
+
+  /**
+   * 在后台线程中执行任务的语句，并将结果保存到下载文件夹中，每条消息保存为一个文件，文件名为 序号.类型
+   *
+   * @param job 后台任务
+   * @param user 提交任务的用户
+   * @param noteId 提交任务的笔记ID
+   * @throws IOException 保存结果失败
+   * @throws InterruptedException 等待准入时被中断
+   */
+  private void runAsyncJob(AsyncJobRegistry.Job job, String user, String noteId)
+      throws IOException, InterruptedException {
+    InterpreterResult interpreterResult;
+    try (AdmissionController.Ticket ticket =
+        admissionController.acquire(user, noteId, () -> false)) {
+      interpreterResult = processSqlWithFailover(job.getStatement(), null);
+      addQueueWaitMessage(interpreterResult, ticket);
+    }
+    awaitDownloadStore();
+    File folder = createDownloadDir("job" + job.getId());
+    String dirName = folder.getName();
+    List<InterpreterResultMessage> messages = interpreterResult.message();
+    for (int i = 0; i < messages.size(); i++) {
+      InterpreterResultMessage message = messages.get(i);
+      Files.write(
+          new File(folder, i + "." + message.getType().name()).toPath(),
+          message.getData().getBytes(StandardCharsets.UTF_8));
+    }
+    registerDownloadDir(folder.getPath());
+    job.finish(interpreterResult.code() == InterpreterResult.Code.SUCCESS, dirName, null);
+  }
+
+  /**
+   * 获取后台任务的结果，任务未结束时返回任务状态
+   *
+   * @param id 任务ID
+   * @param user 当前用户，只能获取自己提交的任务
+   * @return InterpreterResult
+   */
+  private InterpreterResult fetchJobResult(long id, String user) {
+    AsyncJobRegistry.Job job = jobRegistry.get(id, user);
+    if (job == null) {
+      return new InterpreterResult(
+          InterpreterResult.Code.ERROR, String.format("后台任务 %d 不存在或已被清理。", id));
+    }
+    if (job.getStatus() == AsyncJobRegistry.Status.RUNNING) {
+      return new InterpreterResult(
+          InterpreterResult.Code.SUCCESS,
+          String.format(
+              "后台任务 %d 正在执行，已执行 %d 秒%s。",
+              id, job.getElapsedMs() / 1000, formatJobProgress(job, "，")));
+    }
+    if (job.getResultDir() == null) {
+      return new InterpreterResult(
+          InterpreterResult.Code.ERROR,
+          String.format("后台任务 %d 执行失败：%s", id, job.getErrorMessage()));
+    }
+
+    File folder = new File(outfileDir, job.getResultDir());
+    File[] files = folder.listFiles();
+    if (files == null) {
+      return new InterpreterResult(
+          InterpreterResult.Code.ERROR, String.format("后台任务 %d 的结果已被清理。", id));
+    }
+    // 按消息序号排序
+    Map<Integer, File> messageFiles = new TreeMap<>();
+    for (File file : files) {
+      String[] parts = file.getName().split("\\.");
+      if (parts.length == 2 && parts[0].matches("\\d{1,9}")) {
+        messageFiles.put(Integer.parseInt(parts[0]), file);
+      }
+    }
+    Set<String> types = new HashSet<>();
+    for (InterpreterResult.Type type : InterpreterResult.Type.values()) {
+      types.add(type.name());
+    }
+    InterpreterResult interpreterResult =
+        new InterpreterResult(
+            job.getStatus() == AsyncJobRegistry.Status.SUCCESS
+                ? InterpreterResult.Code.SUCCESS
+                : InterpreterResult.Code.ERROR);
+    try {
+      for (File file : messageFiles.values()) {
+        String type = file.getName().split("\\.")[1];
+        if (!types.contains(type)) {
+          return new InterpreterResult(
+              InterpreterResult.Code.ERROR,
+              String.format("后台任务 %d 的结果文件 %s 无法识别。", id, file.getName()));
+        }
+        interpreterResult.add(
+            InterpreterResult.Type.valueOf(type),
+            new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+      }
+    } catch (IOException e) {
+      return new InterpreterResult(
+          InterpreterResult.Code.ERROR, String.format("读取后台任务 %d 的结果失败：%s", id, e.getMessage()));
+    }
+    return interpreterResult;
+  }
+
+  private String buildJobsResult(String user) {
+    SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    StringBuilder builder = new StringBuilder();
+    builder.append("任务ID\t状态\t语句\t提交时间\t耗时(秒)\t进度").append(NEWLINE);
+    for (AsyncJobRegistry.Job job : jobRegistry.list(user)) {
+      builder
+          .append(job.getId())
+          .append(TAB)
+          .append(job.getStatus())
+          .append(TAB)
+          .append(job.getStatement())
+          .append(TAB)
+          .append(dateFormat.format(new Date(job.getSubmitTime())))
+          .append(TAB)
+          .append(job.getElapsedMs() / 1000)
+          .append(TAB)
+          .append(formatJobProgress(job, ""))
+          .append(NEWLINE);
+    }
+    return builder.toString();
+  }
+
+  private static String formatJobProgress(AsyncJobRegistry.Job job, String prefix) {
+    long fetchedRows = job.getFetchedRows();
+    return fetchedRows >= 0 ? prefix + "已拉取 " + fetchedRows + " 行" : "";
+  }
+
+  /**
+   * 从会话池中租用会话执行sql语句，如果会话连接已断开，则将该节点暂时标记为不可用，并换一个节点重新执行
+   *
+   * @param sql sql语句
+   * @param context 用于流式输出结果的InterpreterContext，为null时不流式输出
+   * @return InterpreterResult
+   */
+  private InterpreterResult processSqlWithFailover(String sql, InterpreterContext context) {
+    return processSqlWithFailover(sql, context, null);
+  }
+
+  /**
+   * 同 {@link #processSqlWithFailover(String, InterpreterContext)}，并将IGinX返回的原始结果交给调用方
+   *
+   * @param sql sql语句
+   * @param context 用于流式输出结果的InterpreterContext，为null时不流式输出
+   * @param rawResult 不为null时，语句由 executeSql 执行后将原始结果放入第一个元素；查询结果由调用方自行展示，返回的结果中不再包含表格
+   * @return InterpreterResult
+   */
+  private InterpreterResult processSqlWithFailover(
+      String sql, InterpreterContext context, SessionExecuteSqlResult[] rawResult) {
+    InterpreterResult interpreterResult = null;
+    // 至少重试一次，单节点时相当于重新建立会话后再执行
+    int attempts = Math.max(2, sessionPool.size());
+    for (int i = 0; i < attempts; i++) {
+      IginxSessionPool.Lease lease;
+      try {
+        lease = sessionPool.acquire();
+      } catch (SessionException e) {
+        return new InterpreterResult(
+            InterpreterResult.Code.ERROR,
+            "Can not open session successfully, please check IGinX Server.\n" + e.getMessage());
+      }
+      try {
+        interpreterResult = processSql(sql, lease, context, rawResult);
+        if (!isSessionClosedError(interpreterResult)) {
+          return interpreterResult;
+        }
+        lease.invalidate();
+        if (context != null) {
+          // 清除已经流式输出的部分结果，避免重新执行后结果重复
+          context.out.clear();
+        }
+      } finally {
+        lease.close();
+      }
+    }
+    interpreterResult.add(
+        InterpreterResult.Type.TEXT,
+        "Can not reopen session successfully, please check IGinX Server.");
+    return interpreterResult;
+  }
+
+  private InterpreterResult processSql(
+      String sql,
+      IginxSessionPool.Lease lease,
+      InterpreterContext context,
+      SessionExecuteSqlResult[] rawResult) {
+    String paragraphId = context != null ? context.getParagraphId() : null;
     try {
       // 如果sql中有outfile关键字，则进行特殊处理，将结果下载到zeppelin所在的服务器上，并在表单中返回下载链接
       String outfileRegex =
-          "(?i)\\bINTO\\s+OUTFILE\\s+\"(.*?)\"\\s+AS\\s+STREAM(?:\\s+showimg\\s+(true|false))?\\s*;$";
+          "(?i)\\bINTO\\s+OUTFILE\\s+\"(.*?)\"\\s+AS\\s+STREAM(?:\\s+showimg\\s+(true|false))?(?:\\s+ondownload\\s+(true|false))?\\s*;$";
       Pattern pattern = Pattern.compile(outfileRegex);
       Matcher matcher = pattern.matcher(sql.toLowerCase());
       if (matcher.find()) {
+        if ("true".equals(matcher.group(3))) {
+          return processOndownloadSql(
+              lease, sql, matcher.group(1), "true".equals(matcher.group(2)), paragraphId);
+        }
         if (matcher.group(2) != null)
           if (matcher.group(2).equals("true"))
-            return processOutfileSql(sql, matcher.group(1), true);
-          else return processOutfileSql(sql, matcher.group(1), false);
-        else return processOutfileSql(sql, matcher.group(1), false);
+            return processOutfileSql(lease, sql, matcher.group(1), true, paragraphId);
+          else return processOutfileSql(lease, sql, matcher.group(1), false, paragraphId);
+        else return processOutfileSql(lease, sql, matcher.group(1), false, paragraphId);
       }
       if (isLoadDataFromCsv(sql.toLowerCase())) {
-        return processLoadCsv(sql);
+        return processLoadCsv(lease, sql);
       } else if (isCreateFunction(sql.toLowerCase())) {
-        return processCreateFunction(sql);
+        return processCreateFunction(lease, sql);
+      } else if (streamOutput
+          && context != null
+          && isStreamableQuery(sql.toLowerCase())
+          && !isTimeSeriesChart(context)) {
+        return processStreamQuery(lease, sql, context);
       }
 
-      SessionExecuteSqlResult sqlResult = session.executeSql(sql);
+      SessionExecuteSqlResult sqlResult = lease.call(s -> s.executeSql(sql));
 
       String parseErrorMsg = sqlResult.getParseErrorMsg();
       if (parseErrorMsg != null && !parseErrorMsg.equals("")) {
         return new InterpreterResult(InterpreterResult.Code.ERROR, sqlResult.getParseErrorMsg());
       }
+      if (rawResult != null) {
+        rawResult[0] = sqlResult;
+        if (isQueryResult(sqlResult)) {
+          return new InterpreterResult(InterpreterResult.Code.SUCCESS);
+        }
+      }
 
       InterpreterResult interpreterResult;
       String msg;
 
       if (singleFormSqlType.contains(sqlResult.getSqlType()) && !sql.startsWith("explain")) {
-        msg =
-            buildSingleFormResult(
-                sqlResult.getResultInList(true, FormatUtils.DEFAULT_TIME_FORMAT, timePrecision));
+        // 结果以折线图等图表展示时，点数过多会使浏览器卡顿，降采样后再返回
+        int[] sampledRows = null;
+        if (sqlResult.getSqlType() == SqlType.Query
+            && chartMaxPoints > 0
+            && sqlResult.getKeys() != null
+            && isTimeSeriesChart(context)) {
+          sampledRows =
+              Downsampler.selectRows(sqlResult.getKeys(), sqlResult.getValues(), chartMaxPoints);
+        }
         interpreterResult = new InterpreterResult(InterpreterResult.Code.SUCCESS);
+        if (sqlResult.getSqlType() == SqlType.Query
+            && sqlResult.getPaths() != null
+            && sqlResult.getValues() != null) {
+          // 查询结果直接从原始值渲染，不生成每一行的字符串列表
+          msg =
+              tableRenderer.renderQuery(
+                  sqlResult.getKeys(), sqlResult.getPaths(), sqlResult.getValues(), sampledRows);
+        } else {
+          msg =
+              tableRenderer.renderList(
+                  sqlResult.getResultInList(true, FormatUtils.DEFAULT_TIME_FORMAT, timePrecision));
+        }
         interpreterResult.add(InterpreterResult.Type.TABLE, msg);
+        if (sampledRows != null) {
+          interpreterResult.add(
+              InterpreterResult.Type.TEXT,
+              String.format(
+                  "查询共返回 %d 行，为便于绘图已降采样为 %d 行，完整结果请使用 INTO OUTFILE 导出。",
+                  sqlResult.getKeys().length, sampledRows.length));
+        }
       } else if (sqlResult.getSqlType() == SqlType.Query && sql.startsWith("explain")) {
         msg =
             buildExplainResult(
@@ -270,12 +1289,231 @@ public class IginxInterpreter8 extends Interpreter {
         interpreterResult = new InterpreterResult(InterpreterResult.Code.SUCCESS, msg);
       }
 
-      return interpreterResult;
+      return spillOversizedResult(interpreterResult, paragraphId);
     } catch (Exception e) {
       return new InterpreterResult(
           InterpreterResult.Code.ERROR,
           "encounter error when executing sql statement:\n" + e.getMessage());
+    } finally {
+      if (!isReadOnlySql(sql.toLowerCase())) {
+        outfileIndex.incrementDataVersion();
+      }
+    }
+  }
+
+  /** 查询和查看类语句不会修改数据，其余语句都视为可能修改了数据 */
+  private static boolean isReadOnlySql(String sql) {
+    return sql.startsWith("select") || sql.startsWith("show") || sql.startsWith("explain");
+  }
+
+  /**
+   * 结果超过展示上限时，将完整结果写入下载文件夹，段落中只返回前若干行预览和下载链接，避免过大的结果拖慢浏览器、撑大笔记文件
+   *
+   * @param interpreterResult 原始结果
+   * @param paragraphId 段落ID，用于生成下载文件夹名，可以为null
+   * @return 未超过上限时返回原始结果，否则返回预览和下载链接
+   * @throws IOException
+   */
+  private InterpreterResult spillOversizedResult(
+      InterpreterResult interpreterResult, String paragraphId) throws IOException {
+    List<InterpreterResultMessage> messages = interpreterResult.message();
+    long totalSize = 0;
+    for (InterpreterResultMessage message : messages) {
+      totalSize += message.getData().length();
+    }
+    long maxSize = outputMaxSize * 1024L;
+    if (outputMaxSize <= 0 || totalSize <= maxSize) {
+      return interpreterResult;
+    }
+
+    awaitDownloadStore();
+    File folder = createDownloadDir(paragraphId);
+    String dirName = folder.getName();
+    boolean isTable =
+        messages.size() == 1 && messages.get(0).getType() == InterpreterResult.Type.TABLE;
+    String fileName = isTable ? "result.tsv" : "result.txt";
+    try (Writer writer =
+        new BufferedWriter(
+            new OutputStreamWriter(
+                new FileOutputStream(new File(folder, fileName)), StandardCharsets.UTF_8))) {
+      for (int i = 0; i < messages.size(); i++) {
+        if (i != 0) {
+          writer.write(NEWLINE);
+        }
+        writer.write(messages.get(i).getData());
+      }
+    }
+    registerDownloadDir(folder.getPath());
+
+    // 表格的第一行是表头，不计入预览行数
+    InterpreterResultMessage first = messages.get(0);
+    int previewLines =
+        outputPreviewRows + (first.getType() == InterpreterResult.Type.TABLE ? 1 : 0);
+    String data = first.getData();
+    int end = 0;
+    int lines = 0;
+    while (lines < previewLines && end < data.length()) {
+      int next = data.indexOf('\n', end);
+      next = next < 0 ? data.length() : next + 1;
+      if (next > maxSize) {
+        break;
+      }
+      end = next;
+      lines++;
     }
+
+    InterpreterResult spilledResult = new InterpreterResult(interpreterResult.code());
+    if (end > 0) {
+      spilledResult.add(first.getType(), data.substring(0, end));
+    }
+    spilledResult.add(
+        InterpreterResult.Type.TEXT,
+        String.format(
+            "结果共 %d 个字符，超过了 %d KB 的展示上限，以上仅展示了部分结果，完整结果请通过下载链接获取。", totalSize, outputMaxSize));
+    spilledResult.add(
+        InterpreterResult.Type.TABLE, buildDownloadTable(dirName, null, new String[] {fileName}));
+    return spilledResult;
+  }
+
+  /**
+   * 流式执行查询语句，每拉取 iginx.fetch.size 行就输出到段落中，不必等待查询结束，也不在内存中保存完整结果。 输出超过展示上限后，其余结果写入下载文件夹，段落中提供下载链接。
+   *
+   * @param session 会话
+   * @param sql 查询语句
+   * @param context InterpreterContext上下文
+   * @return 附加在流式输出之后的结果
+   * @throws SessionException
+   * @throws IOException
+   */
+  private InterpreterResult processStreamQuery(
+      IginxSessionPool.Lease lease, String sql, InterpreterContext context)
+      throws SessionException, IOException {
+    int batchSize = Integer.parseInt(fetchSize);
+    QueryDataSet res = lease.call(s -> s.executeQuery(sql, batchSize));
+    long maxSize = outputMaxSize * 1024L;
+    // 已输出到段落中的内容，超过展示上限时写入下载文件，大小不超过展示上限
+    StringBuilder shown = outputMaxSize > 0 ? new StringBuilder() : null;
+    StringBuilder batch = new StringBuilder();
+    String dirName = null;
+    File folder = null;
+    Writer spillWriter = null;
+    long rowCount = 0;
+    try {
+      List<String> columnList = res.getColumnList();
+      boolean hasKey = !columnList.isEmpty() && columnList.get(0).equals(GlobalConstant.KEY_NAME);
+      appendTableRow(batch, columnList.toArray());
+      context.out.setType(InterpreterResult.Type.TABLE);
+
+      boolean cancelled = false;
+      while (!cancelled) {
+        boolean hasMore = res.hasMore();
+        if (hasMore) {
+          Object[] row = res.nextRow();
+          if (hasKey && row.length > 0 && row[0] instanceof Long) {
+            row[0] =
+                FormatUtils.formatTime(
+                    (Long) row[0], FormatUtils.DEFAULT_TIME_FORMAT, timePrecision);
+          }
+          appendTableRow(batch, row);
+          rowCount++;
+        }
+        if (hasMore && rowCount % batchSize != 0) {
+          continue;
+        }
+
+        // 一批数据拉取完毕，输出到段落或下载文件中
+        if (spillWriter == null && shown != null && shown.length() + batch.length() > maxSize) {
+          awaitDownloadStore();
+          folder = createDownloadDir(context.getParagraphId());
+          dirName = folder.getName();
+          spillWriter =
+              new BufferedWriter(
+                  new OutputStreamWriter(
+                      new FileOutputStream(new File(folder, STREAM_RESULT_FILE)),
+                      StandardCharsets.UTF_8));
+          spillWriter.write(shown.toString());
+          shown = null;
+        }
+        if (spillWriter != null) {
+          spillWriter.write(batch.toString());
+        } else {
+          context.out.write(batch.toString());
+          context.out.flush();
+          if (shown != null) {
+            shown.append(batch);
+          }
+        }
+        batch.setLength(0);
+        // 段落被取消后停止拉取数据
+        CompletableFuture<InterpreterResult> task = taskMap.get(context.getParagraphId());
+        cancelled = !hasMore || task == null || task.isDone();
+      }
+    } finally {
+      if (spillWriter != null) {
+        spillWriter.close();
+      }
+      res.close();
+    }
+
+    InterpreterResult interpreterResult = new InterpreterResult(InterpreterResult.Code.SUCCESS);
+    if (folder != null) {
+      registerDownloadDir(folder.getPath());
+      interpreterResult.add(
+          InterpreterResult.Type.TEXT,
+          String.format(
+              "查询共返回 %d 行，超过了 %d KB 的展示上限，以上仅展示了部分结果，完整结果请通过下载链接获取。", rowCount, outputMaxSize));
+      interpreterResult.add(
+          InterpreterResult.Type.TABLE,
+          buildDownloadTable(dirName, null, new String[] {STREAM_RESULT_FILE}));
+    }
+    return interpreterResult;
+  }
+
+  /** 将一行数据以制表符分隔追加到表格中，值中的制表符和换行符替换为空格，避免破坏表格结构 */
+  private static void appendTableRow(StringBuilder builder, Object[] row) {
+    for (int i = 0; i < row.length; i++) {
+      if (i != 0) {
+        builder.append(TAB);
+      }
+      String value = row[i] instanceof String ? (String) row[i] : FormatUtils.valueToString(row[i]);
+      for (int j = 0; j < value.length(); j++) {
+        char c = value.charAt(j);
+        builder.append(c == '\t' || c == '\n' || c == '\r' ? ' ' : c);
+      }
+    }
+    builder.append(NEWLINE);
+  }
+
+  /**
+   * 判断段落的第一个结果是否以时间序列图表（折线图、面积图、散点图）展示
+   *
+   * @param context InterpreterContext上下文，为null时返回false
+   * @return true表示以时间序列图表展示
+   */
+  @SuppressWarnings("unchecked")
+  private static boolean isTimeSeriesChart(InterpreterContext context) {
+    if (context == null || context.getConfig() == null) {
+      return false;
+    }
+    // 段落配置的格式为 {"results": {"0": {"graph": {"mode": "lineChart", ...}}}}
+    Object results = context.getConfig().get("results");
+    if (!(results instanceof Map)) {
+      return false;
+    }
+    Object firstResult = ((Map<String, Object>) results).get("0");
+    if (!(firstResult instanceof Map)) {
+      return false;
+    }
+    Object graph = ((Map<String, Object>) firstResult).get("graph");
+    if (!(graph instanceof Map)) {
+      return false;
+    }
+    return timeSeriesChartModes.contains(((Map<String, Object>) graph).get("mode"));
+  }
+
+  /** 只有普通的查询语句可以流式输出，explain等语句的结果需要完整获取后再处理 */
+  private static boolean isStreamableQuery(String sql) {
+    return sql.trim().startsWith("select");
   }
 
   private static boolean isLoadDataFromCsv(String sql) {
@@ -289,15 +1527,17 @@ public class IginxInterpreter8 extends Interpreter {
   /**
    * 处理 load data from csv语句，可使用的文件是客户端本地文件
    *
+   * @param session 执行语句的会话
    * @param sql load csv 语句
    * @throws SessionException
    * @throws IOException
    */
-  private InterpreterResult processLoadCsv(String sql) throws SessionException, IOException {
+  private InterpreterResult processLoadCsv(IginxSessionPool.Lease lease, String sql)
+      throws SessionException, IOException {
     String msg;
     InterpreterResult interpreterResult;
 
-    SessionExecuteSqlResult res = session.executeSql(sql);
+    SessionExecuteSqlResult res = lease.call(s -> s.executeSql(sql));
     String path = res.getLoadCsvPath();
 
     String parseErrorMsg = res.getParseErrorMsg();
@@ -318,7 +1558,7 @@ public class IginxInterpreter8 extends Interpreter {
 
     byte[] bytes = FileUtils.readFileToByteArray(file);
     ByteBuffer csvFile = ByteBuffer.wrap(bytes);
-    Pair<List<String>, Long> pair = session.executeLoadCSV(sql, csvFile);
+    Pair<List<String>, Long> pair = lease.call(s -> s.executeLoadCSV(sql, csvFile));
     List<String> columns = pair.k;
     long recordsNum = pair.v;
 
@@ -329,20 +1569,75 @@ public class IginxInterpreter8 extends Interpreter {
     return interpreterResult;
   }
 
-  private InterpreterResult processCreateFunction(String sql) {
+  private InterpreterResult processCreateFunction(IginxSessionPool.Lease lease, String sql) {
     String msg;
     InterpreterResult interpreterResult;
 
+    // 计算函数名、语句和模块文件的校验和，无法解析或读取模块文件时按原样注册，由IGinX报告错误
+    List<String> functionNames = UdfRegistry.parseFunctionNames(sql);
+    String modulePath = UdfRegistry.parseModulePath(sql);
+    String registryKey = null;
+    String checksum = null;
+    if (!functionNames.isEmpty() && modulePath != null) {
+      try {
+        checksum = UdfRegistry.checksum(sql, modulePath);
+        registryKey = UdfRegistry.key(getClusterAddress(), functionNames);
+      } catch (IOException e) {
+        System.out.println("Can not compute UDF checksum: " + e.getMessage());
+      }
+    }
+
     try {
+      String registeredChecksum = registryKey != null ? udfRegistry.get(registryKey) : null;
+      // 新模块注册失败时，用之前注册时备份的模块恢复被删除的函数
+      String rollbackSql = null;
+      // 只处理本解释器注册过且仍然存在的UDF，其他情况按原样注册
+      if (registeredChecksum != null && listFunctionNames(lease).containsAll(functionNames)) {
+        if (registeredChecksum.equals(checksum)) {
+          return new InterpreterResult(
+              InterpreterResult.Code.SUCCESS, "UDF 未改变，跳过注册：" + String.join(", ", functionNames));
+        }
+        // 模块文件或语句已改变，删除之前注册的UDF后重新注册，任一函数删除失败时不重新注册
+        for (String functionName : functionNames) {
+          String dropError;
+          try {
+            SessionExecuteSqlResult dropResult =
+                lease.call(s -> s.executeSql("drop function \"" + functionName + "\";"));
+            dropError = dropResult.getParseErrorMsg();
+          } catch (SessionException e) {
+            dropError = e.getMessage();
+          }
+          if (dropError != null && !dropError.isEmpty()) {
+            return new InterpreterResult(
+                InterpreterResult.Code.ERROR,
+                String.format("删除之前注册的 UDF %s 失败，未重新注册：%s", functionName, dropError));
+          }
+        }
+        rollbackSql = udfRegistry.getRollbackSql(registryKey);
+      }
+
       String parseErrorMsg;
-      LoadUDFResp resp = session.executeRegisterTask(sql);
-      parseErrorMsg = resp.getParseErrorMsg();
+      try {
+        LoadUDFResp resp = lease.call(s -> s.executeRegisterTask(sql));
+        parseErrorMsg = resp.getParseErrorMsg();
+      } catch (SessionException e) {
+        parseErrorMsg = e.getMessage();
+      }
       if (parseErrorMsg != null && !parseErrorMsg.equals("")) {
         msg = "Error: " + parseErrorMsg;
+        if (registeredChecksum != null && rollbackSql != null) {
+          msg += restorePreviousFunctions(lease, rollbackSql, registryKey, functionNames);
+        } else if (registeredChecksum != null) {
+          udfRegistry.remove(registryKey);
+        }
         interpreterResult = new InterpreterResult(InterpreterResult.Code.ERROR, msg);
 
         return interpreterResult;
       }
+      if (registryKey != null) {
+        udfRegistry.put(registryKey, checksum);
+        udfRegistry.backup(registryKey, sql, modulePath);
+      }
 
       msg = "Success!";
       interpreterResult = new InterpreterResult(InterpreterResult.Code.SUCCESS);
@@ -355,30 +1650,78 @@ public class IginxInterpreter8 extends Interpreter {
     return interpreterResult;
   }
 
+  /**
+   * 新模块注册失败后，用备份的模块重新注册之前的函数
+   *
+   * @param lease 会话租约
+   * @param rollbackSql 模块指向备份的注册语句
+   * @param registryKey 注册记录的键
+   * @param functionNames 函数名
+   * @return 追加到错误信息中的恢复结果
+   */
+  private String restorePreviousFunctions(
+      IginxSessionPool.Lease lease,
+      String rollbackSql,
+      String registryKey,
+      List<String> functionNames) {
+    String restoreError;
+    try {
+      restoreError = lease.call(s -> s.executeRegisterTask(rollbackSql)).getParseErrorMsg();
+    } catch (SessionException e) {
+      restoreError = e.getMessage();
+    }
+    if (restoreError == null || restoreError.isEmpty()) {
+      // 记录中仍是之前的校验和，与恢复的函数一致
+      return "\n已恢复之前注册的 UDF：" + String.join(", ", functionNames);
+    }
+    udfRegistry.remove(registryKey);
+    return "\n恢复之前注册的 UDF 失败：" + restoreError;
+  }
+
+  /** 解释器连接的IGinX集群地址，用于区分不同集群中注册的UDF */
+  private String getClusterAddress() {
+    return endpoints.isEmpty() ? host + ":" + port : endpoints;
+  }
+
   /**
    * 处理带有outfile关键字的sql语句，将结果下载到zeppelin所在的服务器上，并在表单中返回下载链接
    *
+   * @param session 执行语句的会话
    * @param sql 带有outfile关键字的sql语句
    * @param originOutfilePath 原始的outfile路径
    * @param showimg
+   * @param paragraphId 段落ID，用于生成下载文件夹名，可以为null
    * @return InterpreterResult
    * @throws SessionException
    * @throws IOException
    */
-  private InterpreterResult processOutfileSql(String sql, String originOutfilePath, Boolean showimg)
+  private InterpreterResult processOutfileSql(
+      IginxSessionPool.Lease lease,
+      String sql,
+      String originOutfilePath,
+      Boolean showimg,
+      String paragraphId)
       throws SessionException, IOException {
-
-    // 根据当前年月日时分秒毫秒生成outfile的文件夹名，将文件下载到此处
-    String dateDir = new Date().toString().replace(" ", "-").replace(":", "-");
-    String outfileDirPath = Paths.get(outfileDir, dateDir).toString();
-    File outfileFolder = new File(outfileDirPath);
-    if (!outfileFolder.exists()) {
-      outfileFolder.mkdirs();
+    awaitDownloadStore();
+
+    // 有效期内执行过相同的导出，且之后没有通过共用下载文件夹的解释器写入数据时，直接返回已有的文件
+    String cacheKey =
+        outfileCacheTtl > 0
+            ? OutfileIndex.key(
+                sql, outfileIndex.getDataVersion(), showimg ? "stream-showimg" : "stream")
+            : null;
+    if (cacheKey != null) {
+      String cachedDir = outfileIndex.lookup(cacheKey, outfileCacheTtl);
+      if (cachedDir != null) {
+        InterpreterResult interpreterResult =
+            buildOutfileResult(new File(outfileDir, cachedDir), showimg);
+        interpreterResult.add(InterpreterResult.Type.TEXT, "与之前的导出完全相同，已直接返回之前导出的文件。");
+        return interpreterResult;
+      }
     }
 
-    if (!outfileFolder.isDirectory()) {
-      throw new IOException(String.format("Path %s is supposed to be a dir.", outfileDirPath));
-    }
+    File outfileFolder = createDownloadDir(paragraphId);
+    String outfileDirPath = outfileFolder.getPath();
 
     // 替换sql中最后一个outfile关键词，替换文件路径为Zeppelin在服务端指定的路径
     Pattern pattern = Pattern.compile(outfileRegex);
@@ -396,7 +1739,8 @@ public class IginxInterpreter8 extends Interpreter {
                   .replaceFirst(outfileRegex, "$1" + outfileDirPath.replace("\\", "\\\\") + "$3;");
     }
 
-    QueryDataSet res = session.executeQuery(sql);
+    String exportSql = sql;
+    QueryDataSet res = lease.call(s -> s.executeQuery(exportSql));
 
     processExportByteStream(res);
 
@@ -404,11 +1748,9 @@ public class IginxInterpreter8 extends Interpreter {
     String[] fileNames = outfileFolder.list();
 
     // 如果有多个文件，压缩outfileDirPath文件夹
-    boolean hasMultipleFiles = fileNames != null && fileNames.length > 1;
-    String zipName = "all_file.zip";
-    if (hasMultipleFiles) {
+    if (fileNames != null && fileNames.length > 1) {
       FileOutputStream outputStream =
-          new FileOutputStream(Paths.get(outfileDirPath, zipName).toString());
+          new FileOutputStream(Paths.get(outfileDirPath, ZIP_NAME).toString());
       ArrayList<File> fileList = new ArrayList<>();
       for (String fileName : fileNames) {
         fileList.add(new File(outfileDirPath + "/" + fileName));
@@ -417,59 +1759,286 @@ public class IginxInterpreter8 extends Interpreter {
       outputStream.close();
     }
 
-    // 清理NGINX_STATIC文件夹
-    downloadFileQueue.add(outfileDirPath);
-    double fileSize = getFileSize(outfileDirPath);
-    downloadFileSizeQueue.add(fileSize);
-    downloadFileTotalSize += fileSize;
-    clearNGINXStaticFiles();
+    InterpreterResult interpreterResult = buildOutfileResult(outfileFolder, showimg);
 
-    InterpreterResult interpreterResult = new InterpreterResult(InterpreterResult.Code.SUCCESS);
-    if (showimg) {
-      if (fileNames != null) {
-        String[] IMAGE_EXTENSIONS = {"jpg", "jpeg", "png", "gif", "bmp", "tiff"};
-        for (String fileName : fileNames) {
-          for (String ext : IMAGE_EXTENSIONS) {
-            if (fileName.endsWith("." + ext)) {
-              byte[] imageBytes = Files.readAllBytes(Paths.get(outfileDirPath + "/" + fileName));
-              String base64Image = Base64.getEncoder().encodeToString(imageBytes);
-
-              interpreterResult.add(
-                  new InterpreterResultMessage(InterpreterResult.Type.TEXT, fileName));
-              interpreterResult.add(
-                  new InterpreterResultMessage(InterpreterResult.Type.IMG, base64Image));
-              break;
-            }
+    // 清理NGINX_STATIC文件夹，缩略图也计入文件夹大小
+    registerDownloadDir(outfileDirPath);
+
+    if (cacheKey != null) {
+      outfileIndex.put(cacheKey, outfileFolder.getName(), outfileCacheTtl);
+    }
+    return interpreterResult;
+  }
+
+  /**
+   * 处理 ondownload true 的 OUTFILE 语句：不立即执行查询，而是生成一个有时效的下载链接，点击链接时才执行查询并将结果直接写入下载响应，不在服务器上保存文件。
+   * 文件下载服务由其他解释器进程提供时，无法在本进程中执行查询，改为普通的导出
+   *
+   * @param session 执行语句的会话，仅在改为普通导出时使用
+   * @param sql 带有outfile关键字的sql语句
+   * @param originOutfilePath 原始的outfile路径
+   * @param showimg 改为普通导出时是否展示图片
+   * @param paragraphId 段落ID，改为普通导出时用于生成下载文件夹名，可以为null
+   * @return InterpreterResult
+   * @throws SessionException
+   * @throws IOException
+   */
+  private InterpreterResult processOndownloadSql(
+      IginxSessionPool.Lease lease,
+      String sql,
+      String originOutfilePath,
+      boolean showimg,
+      String paragraphId)
+      throws SessionException, IOException {
+    awaitDownloadStore();
+
+    // 去掉最后一个outfile子句，得到查询语句
+    Matcher matcher = OUTFILE_CLAUSE_PATTERN.matcher(sql);
+    int clauseStart = 0;
+    while (matcher.find()) {
+      clauseStart = matcher.start();
+    }
+    String querySql = sql.substring(0, clauseStart).trim() + SEMICOLON;
+
+    String token = UUID.randomUUID().toString().replace("-", "");
+    SimpleFileServer.StreamSource source =
+        () -> {
+          IginxSessionPool.Lease streamLease;
+          try {
+            streamLease = sessionPool.acquire();
+          } catch (SessionException e) {
+            throw new IOException(e.getMessage(), e);
           }
+          try {
+            QueryDataSet res =
+                streamLease.call(s -> s.executeQuery(querySql, Integer.parseInt(fetchSize)));
+            return new QueryStreamDownload(res, streamLease, timePrecision);
+          } catch (SessionException e) {
+            streamLease.invalidate();
+            streamLease.close();
+            throw new IOException(e.getMessage(), e);
+          } catch (RuntimeException e) {
+            streamLease.close();
+            throw new IOException(e.getMessage(), e);
+          }
+        };
+    if (!fileServer.registerStream(this, token, source, downloadTokenTtl)) {
+      InterpreterResult interpreterResult =
+          processOutfileSql(lease, sql, originOutfilePath, showimg, paragraphId);
+      interpreterResult.add(
+          InterpreterResult.Type.TEXT, "文件下载服务由其他解释器进程提供，无法在下载时执行查询，已先将结果导出到服务器。");
+      return interpreterResult;
+    }
+
+    String link =
+        "http://"
+            + localIpAddress.join()
+            + ":"
+            + fileServer.getPort()
+            + SimpleFileServer.STREAM_PREFIX
+            + "/"
+            + token;
+    InterpreterResult interpreterResult = new InterpreterResult(InterpreterResult.Code.SUCCESS);
+    interpreterResult.add(
+        InterpreterResult.Type.TABLE,
+        "文件名"
+            + TAB
+            + "下载链接"
+            + NEWLINE
+            + "查询结果"
+            + TAB
+            + String.format("%%html<a href=\"%s\" download>点击下载</a>", link)
+            + NEWLINE);
+    interpreterResult.add(
+        InterpreterResult.Type.TEXT,
+        String.format(
+            "点击下载链接时才会执行查询，结果不在服务器上保存，链接在 %d 分钟内有效。只有一列数据时下载原始文件，否则下载CSV文件。",
+            downloadTokenTtl / 60000));
+    return interpreterResult;
+  }
+
+  /**
+   * 根据导出文件夹中的文件构建下载链接和图片展示结果
+   *
+   * @param outfileFolder 导出文件夹
+   * @param showimg 是否展示图片
+   * @return InterpreterResult
+   * @throws IOException
+   */
+  private InterpreterResult buildOutfileResult(File outfileFolder, boolean showimg)
+      throws IOException {
+    String dirName = outfileFolder.getName();
+    // 压缩包和缩略图文件夹不是导出的文件
+    List<String> fileNameList = new ArrayList<>();
+    String[] allFileNames = outfileFolder.list();
+    if (allFileNames != null) {
+      for (String fileName : allFileNames) {
+        if (!fileName.equals(ZIP_NAME) && !fileName.equals(ImageThumbnails.THUMBNAIL_DIR)) {
+          fileNameList.add(fileName);
         }
       }
     }
-    // 构建表格
+    String[] fileNames = fileNameList.toArray(new String[0]);
+    boolean hasMultipleFiles = fileNames.length > 1;
+
+    InterpreterResult interpreterResult = new InterpreterResult(InterpreterResult.Code.SUCCESS);
+    if (showimg) {
+      buildImageResult(interpreterResult, outfileFolder, dirName, fileNames, getHttpPrefix());
+    }
+    String msg = buildDownloadTable(dirName, hasMultipleFiles ? ZIP_NAME : null, fileNames);
+    interpreterResult.add(InterpreterResult.Type.TABLE, msg);
+    return interpreterResult;
+  }
+
+  /**
+   * 在下载文件夹中创建新的子文件夹，文件夹名由时间、标签和随机ID组成，并发创建的文件夹不会重名
+   *
+   * @param tag 文件夹名中的标签，如段落ID，可以为null
+   * @return 子文件夹
+   * @throws IOException
+   */
+  private File createDownloadDir(String tag) throws IOException {
+    Files.createDirectories(Paths.get(outfileDir));
+    StringBuilder dirName =
+        new StringBuilder(new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date()));
+    if (tag != null && !tag.isEmpty()) {
+      // 只保留可以安全用在文件名和URL中的字符
+      dirName.append('-').append(tag.replaceAll("[^A-Za-z0-9_-]", "_"));
+    }
+    dirName.append('-');
+    while (true) {
+      String uniqueId = UUID.randomUUID().toString().replace("-", "").substring(0, 12);
+      Path path = Paths.get(outfileDir, dirName + uniqueId);
+      try {
+        // createDirectory在文件夹已存在时抛出异常，保证不会与其他导出共用文件夹
+        return Files.createDirectory(path).toFile();
+      } catch (FileAlreadyExistsException e) {
+        // 随机ID重复，重新生成
+      }
+    }
+  }
+
+  /**
+   * 记录新生成的下载子文件夹，并在数量或大小超过限制时清理最早的子文件夹
+   *
+   * @param outfileDirPath 子文件夹路径
+   * @throws IOException
+   */
+  private void registerDownloadDir(String outfileDirPath) throws IOException {
+    downloadStore.register(outfileDirPath, outfileMaxNum, outfileMaxSize);
+  }
+
+  private String getHttpPrefix() {
+    return "http://"
+        + localIpAddress.join()
+        + ":"
+        + fileServer.getPort()
+        + SimpleFileServer.PREFIX
+        + "/";
+  }
+
+  /**
+   * 构建文件下载表格
+   *
+   * @param dirName 文件所在的下载子文件夹名
+   * @param zipName 所有文件压缩包的文件名，没有压缩包时为null
+   * @param fileNames 文件名
+   * @return 表格
+   */
+  private String buildDownloadTable(String dirName, String zipName, String[] fileNames) {
+    String httpPrefix = getHttpPrefix();
     String downloadLink = "%%html<a href=\"%s\" download=\"%s\">点击下载</a>";
     StringBuilder builder = new StringBuilder();
     builder.append("文件名").append(TAB).append("下载链接").append(NEWLINE);
-    String httpPrefix =
-        "http://" + localIpAddress + ":" + fileHttpPort + SimpleFileServer.PREFIX + "/";
-    if (hasMultipleFiles) {
+    if (zipName != null) {
       builder
           .append("所有文件压缩包")
           .append(TAB)
-          .append(String.format(downloadLink, httpPrefix + Paths.get(dateDir, zipName), zipName))
+          .append(String.format(downloadLink, httpPrefix + Paths.get(dirName, zipName), zipName))
           .append(NEWLINE);
     }
-    if (fileNames != null) {
-      for (String fileName : fileNames) {
-        builder
-            .append(fileName)
-            .append(TAB)
-            .append(
-                String.format(downloadLink, httpPrefix + Paths.get(dateDir, fileName), fileName))
-            .append(NEWLINE);
+    for (String fileName : fileNames) {
+      builder
+          .append(fileName)
+          .append(TAB)
+          .append(String.format(downloadLink, httpPrefix + Paths.get(dirName, fileName), fileName))
+          .append(NEWLINE);
+    }
+    return builder.toString();
+  }
+
+  /**
+   * 展示导出文件夹中的图片。图片以缩略图的形式内嵌在结果中，点击缩略图打开原图；内嵌的图片数量或总大小超过限制后，其余图片只提供下载链接
+   *
+   * @param interpreterResult 添加图片的InterpreterResult
+   * @param outfileFolder 导出文件夹
+   * @param dateDir 导出文件夹名
+   * @param fileNames 导出的文件名
+   * @param httpPrefix 下载链接前缀
+   * @throws IOException
+   */
+  private void buildImageResult(
+      InterpreterResult interpreterResult,
+      File outfileFolder,
+      String dateDir,
+      String[] fileNames,
+      String httpPrefix)
+      throws IOException {
+    List<String> imageNames = new ArrayList<>();
+    int imageCount = 0;
+    for (String fileName : fileNames) {
+      if (ImageThumbnails.isImage(fileName)) {
+        imageCount++;
+        if (imageNames.size() < showimgMaxNum) {
+          imageNames.add(fileName);
+        }
       }
     }
-    String msg = builder.toString();
-    interpreterResult.add(InterpreterResult.Type.TABLE, msg);
-    return interpreterResult;
+    if (imageCount == 0) {
+      return;
+    }
+
+    List<File> thumbnails =
+        ImageThumbnails.createThumbnails(outfileFolder, imageNames, showimgThumbnailSize);
+    long maxInlineBytes = showimgMaxSize * 1024L;
+    long inlineBytes = 0;
+    int shownCount = 0;
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < imageNames.size(); i++) {
+      File thumbnail = thumbnails.get(i);
+      if (thumbnail == null) {
+        continue;
+      }
+      if (inlineBytes + thumbnail.length() > maxInlineBytes) {
+        break;
+      }
+      inlineBytes += thumbnail.length();
+      String base64Image =
+          Base64.getEncoder().encodeToString(Files.readAllBytes(thumbnail.toPath()));
+      String mimeType = thumbnail.getName().endsWith(".jpg") ? "image/jpeg" : "image/png";
+      builder
+          .append("<div style=\"display:inline-block;margin:4px;text-align:center;\">")
+          .append("<a href=\"")
+          .append(httpPrefix)
+          .append(Paths.get(dateDir, imageNames.get(i)))
+          .append("\" target=\"_blank\"><img src=\"data:")
+          .append(mimeType)
+          .append(";base64,")
+          .append(base64Image)
+          .append("\"/></a><br>")
+          .append(escapeHTML(imageNames.get(i)))
+          .append("</div>");
+      shownCount++;
+    }
+
+    if (shownCount > 0) {
+      interpreterResult.add(InterpreterResult.Type.HTML, builder.toString());
+    }
+    if (shownCount < imageCount) {
+      interpreterResult.add(
+          InterpreterResult.Type.TEXT,
+          String.format("共 %d 张图片，展示了其中 %d 张的缩略图，其余图片请通过下载链接查看。", imageCount, shownCount));
+    }
   }
 
   /**
@@ -517,11 +2086,23 @@ public class IginxInterpreter8 extends Interpreter {
       Files.deleteIfExists(Paths.get(columns[i]));
     }
 
-    while (res.hasMore()) {
-      List<List<byte[]>> cache = cacheResultByteArray(res);
-      exportByteStream(cache, columns);
+    // 拉取和写入同时进行
+    ExportPipeline pipeline =
+        new ExportPipeline(
+            Integer.parseInt(fetchSize),
+            exportWriterNum,
+            exportQueueSize,
+            AdmissionController.currentTicket());
+    // 在后台任务中导出时，记录导出进度
+    AsyncJobRegistry.Job job = AsyncJobRegistry.currentJob();
+    if (job != null) {
+      job.setPipeline(pipeline);
+    }
+    try {
+      pipeline.export(res, columns);
+    } finally {
+      res.close();
     }
-    res.close();
 
     System.out.println(
         "Successfully write "
@@ -531,44 +2112,6 @@ public class IginxInterpreter8 extends Interpreter {
             + "\".");
   }
 
-  /**
-   * 将QueryDataSet中的结果缓存到List<List<byte[]>>中，每一行为一个List<byte[]>，每一列为一个byte[]
-   * 拷贝自Client模块的Outfile相关代码，因为Client模块不能被引用
-   *
-   * @param queryDataSet QueryDataSet
-   * @return 缓存结果
-   * @throws SessionException
-   */
-  private List<List<byte[]>> cacheResultByteArray(QueryDataSet queryDataSet)
-      throws SessionException {
-    List<List<byte[]>> cache = new ArrayList<>();
-    int rowIndex = 0;
-    while (queryDataSet.hasMore() && rowIndex < Integer.parseInt(fetchSize)) {
-      List<byte[]> nextRow = queryDataSet.nextRowAsBytes();
-      if (nextRow != null) {
-        cache.add(nextRow);
-        rowIndex++;
-      }
-    }
-    return cache;
-  }
-
-  private String buildSingleFormResult(List<List<String>> queryList) {
-    StringBuilder builder = new StringBuilder();
-    for (int i = 0; i < queryList.size(); i++) {
-      List<String> row = queryList.get(i);
-      for (String val : row) {
-        if (i != 0) {
-          val = convertToHTMLString(val);
-        }
-        builder.append(val).append(TAB);
-      }
-      builder.deleteCharAt(builder.length() - 1);
-      builder.append(NEWLINE);
-    }
-    return builder.toString();
-  }
-
   /**
    * 将给定的文件列表压缩成zip文件，输出到给定的输出流中
    *
@@ -605,83 +2148,9 @@ public class IginxInterpreter8 extends Interpreter {
     }
   }
 
-  /** 加载NGINX_STATIC文件夹下的文件信息，将文件夹名和文件夹大小加入到downloadFileQueue和downloadFileSizeQueue中 */
-  private void loadNGINXStaticFilesInfo() throws IOException {
-    File nginxStaticFolder = new File(outfileDir);
-    if (!nginxStaticFolder.exists() || !nginxStaticFolder.isDirectory()) {
-      return;
-    }
-    File[] nginxStaticFiles = nginxStaticFolder.listFiles();
-    if (nginxStaticFiles == null) {
-      return;
-    }
-    for (File nginxStaticFile : nginxStaticFiles) {
-      if (nginxStaticFile.isDirectory()) {
-        downloadFileQueue.add(nginxStaticFile.getAbsolutePath());
-        downloadFileSizeQueue.add(getFileSize(nginxStaticFile.getAbsolutePath()));
-        downloadFileTotalSize += getFileSize(nginxStaticFile.getAbsolutePath());
-      }
-    }
-  }
-
-  /**
-   * 清理NGINX_STATIC文件夹，如果NGINX_STATIC文件夹中的文件夹数量或大小超过一定数量，清理掉最早的文件夹，直到文件夹数量和大小小于一定数量
-   * 不清除当前下载的文件夹（即最新的文件夹）
-   */
-  private void clearNGINXStaticFiles() throws IOException {
-    File nginxStaticFolder = new File(outfileDir);
-    if (!nginxStaticFolder.exists() || !nginxStaticFolder.isDirectory()) {
-      return;
-    }
-    // 检查NGINX_STATIC文件夹下的文件夹数量和大小
-    while ((downloadFileQueue.size() > outfileMaxNum || downloadFileTotalSize > outfileMaxSize)
-        && downloadFileQueue.size() > 1) {
-      String oldestFolder = downloadFileQueue.poll();
-      double oldestFileSize = downloadFileSizeQueue.poll();
-      downloadFileTotalSize -= oldestFileSize;
-      if (oldestFolder != null) {
-        Files.walkFileTree(
-            Paths.get(oldestFolder),
-            new SimpleFileVisitor<Path>() {
-              @Override
-              public FileVisitResult visitFile(
-                  Path file, java.nio.file.attribute.BasicFileAttributes attrs) throws IOException {
-                Files.delete(file);
-                return FileVisitResult.CONTINUE;
-              }
-
-              @Override
-              public FileVisitResult postVisitDirectory(Path dir, IOException exc)
-                  throws IOException {
-                Files.delete(dir);
-                return FileVisitResult.CONTINUE;
-              }
-            });
-      }
-    }
-  }
-
-  /**
-   * 获取文件夹下所有文件的大小(MB)
-   *
-   * @param path 文件夹路径
-   * @return 文件夹下所有文件的大小(MB)
-   * @throws IOException
-   */
-  private double getFileSize(String path) throws IOException {
-    final double[] fileSize = {0L};
-    Files.walkFileTree(
-        Paths.get(path),
-        new SimpleFileVisitor<Path>() {
-          @Override
-          public FileVisitResult visitFile(
-              Path file, java.nio.file.attribute.BasicFileAttributes attrs) throws IOException {
-            fileSize[0] += Files.size(file) / 1024.0 / 1024.0;
-            return FileVisitResult.CONTINUE;
-          }
-        });
-
-    return fileSize[0];
+  /** 获取下载文件夹对应的导出子文件夹队列，第一次获取时扫描已有的子文件夹。在open时于后台执行，测试中可覆盖以控制扫描完成的时机 */
+  void loadNGINXStaticFilesInfo() throws IOException {
+    downloadStore = DownloadStore.shared(outfileDir);
   }
 
   private String buildExplainResult(List<List<String>> queryList) {
@@ -747,10 +2216,11 @@ public class IginxInterpreter8 extends Interpreter {
     return Arrays.stream(tmp).map(String::trim).toArray(String[]::new);
   }
 
-  private String convertToHTMLString(String str) {
-    return str.contains("\n")
-        ? "%html" + str.replace("\n", "<br>").replace("\t", "&nbsp;&nbsp;&nbsp;&nbsp;")
-        : str;
+  private static String escapeHTML(String str) {
+    return str.replace("&", "&amp;")
+        .replace("<", "&lt;")
+        .replace(">", "&gt;")
+        .replace("\"", "&quot;");
   }
 
   /**
@@ -776,6 +2246,16 @@ public class IginxInterpreter8 extends Interpreter {
     }
   }
 
+  @Override
+  public List<InterpreterCompletion> completion(
+      String buf, int cursor, InterpreterContext interpreterContext) throws InterpreterException {
+    SqlCompleter completer = sqlCompleter;
+    if (completer == null) {
+      return new ArrayList<>();
+    }
+    return completer.complete(buf, cursor);
+  }
+
   @Override
   public FormType getFormType() throws InterpreterException {
     return FormType.SIMPLE;
@@ -806,18 +2286,4 @@ public class IginxInterpreter8 extends Interpreter {
 
     return false;
   }
-
-  private boolean reopenSession() {
-    try {
-      session.closeSession();
-    } catch (SessionException ignored) {
-    }
-
-    try {
-      session.openSession();
-    } catch (SessionException e) {
-      return false;
-    }
-    return true;
-  }
 }
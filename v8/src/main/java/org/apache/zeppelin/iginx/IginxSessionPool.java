@@ -0,0 +1,371 @@
+package org.apache.zeppelin.iginx;
+
+import cn.edu.tsinghua.iginx.exception.SessionException;
+import cn.edu.tsinghua.iginx.session.Session;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * IGinX 会话池，可以同时连接多个 IGinX 节点。
+ *
+ * <p>每次执行语句前从池中租用一个会话，根据负载均衡策略选择节点：least_requests 选择未完成请求最少的节点，latency
+ * 选择按平均延迟加权后负载最小的节点。节点连接失败后会在一段时间内被标记为不可用，请求会转移到其他节点上。
+ */
+public class IginxSessionPool {
+
+  public static final String POLICY_LEAST_REQUESTS = "least_requests";
+  public static final String POLICY_LATENCY = "latency";
+
+  // 延迟的指数加权移动平均系数
+  private static final double LATENCY_EWMA_ALPHA = 0.2;
+
+  private final List<Endpoint> endpoints;
+  private final String username;
+  private final String password;
+  private final String policy;
+  private final long retryIntervalMs;
+  private final long acquireTimeoutMs;
+
+  // 未完成请求数相同时轮流选择节点，避免请求总是落在第一个节点上
+  private final AtomicInteger roundRobin = new AtomicInteger();
+
+  private volatile boolean closed = false;
+
+  public IginxSessionPool(
+      List<Endpoint> endpoints,
+      String username,
+      String password,
+      String policy,
+      long retryIntervalMs,
+      long acquireTimeoutMs) {
+    if (endpoints.isEmpty()) {
+      throw new IllegalArgumentException("At least one IGinX endpoint is required.");
+    }
+    if (!POLICY_LEAST_REQUESTS.equals(policy) && !POLICY_LATENCY.equals(policy)) {
+      throw new IllegalArgumentException("Unknown load balance policy: " + policy);
+    }
+    this.endpoints = Collections.unmodifiableList(new ArrayList<>(endpoints));
+    this.username = username;
+    this.password = password;
+    this.policy = policy;
+    this.retryIntervalMs = retryIntervalMs;
+    this.acquireTimeoutMs = acquireTimeoutMs;
+  }
+
+  /**
+   * 解析节点列表，格式为 host1:port1,host2:port2，省略端口时使用默认端口；列表为空时只使用默认节点
+   *
+   * @param endpointsStr 节点列表
+   * @param defaultHost 默认节点地址
+   * @param defaultPort 默认端口
+   * @param maxSessions 每个节点最多建立的会话数
+   * @return 节点列表
+   */
+  public static List<Endpoint> parseEndpoints(
+      String endpointsStr, String defaultHost, int defaultPort, int maxSessions) {
+    List<Endpoint> endpoints = new ArrayList<>();
+    if (endpointsStr != null) {
+      for (String item : endpointsStr.split(",")) {
+        item = item.trim();
+        if (item.isEmpty()) {
+          continue;
+        }
+        int index = item.lastIndexOf(':');
+        if (index < 0) {
+          endpoints.add(new Endpoint(item, defaultPort, maxSessions));
+        } else {
+          endpoints.add(
+              new Endpoint(
+                  item.substring(0, index).trim(),
+                  Integer.parseInt(item.substring(index + 1).trim()),
+                  maxSessions));
+        }
+      }
+    }
+    if (endpoints.isEmpty()) {
+      endpoints.add(new Endpoint(defaultHost, defaultPort, maxSessions));
+    }
+    return endpoints;
+  }
+
+  /**
+   * 在每个节点上预先建立一个会话，只要有一个节点连接成功即可
+   *
+   * @throws SessionException 所有节点都无法连接
+   */
+  public void open() throws SessionException {
+    SessionException lastException = null;
+    int opened = 0;
+    for (Endpoint endpoint : endpoints) {
+      if (!endpoint.permits.tryAcquire()) {
+        continue;
+      }
+      try {
+        endpoint.idleSessions.offer(openSession(endpoint));
+        opened++;
+      } catch (SessionException e) {
+        lastException = e;
+        markUnhealthy(endpoint);
+        System.out.println("Can not open session to " + endpoint + " successfully.");
+      } finally {
+        endpoint.permits.release();
+      }
+    }
+    if (opened == 0 && lastException != null) {
+      throw lastException;
+    }
+  }
+
+  /**
+   * 租用一个会话，使用完毕后必须调用 {@link Lease#close()} 归还。优先选择可用节点，若节点连接失败或等待空闲会话超时则依次尝试其他节点
+   *
+   * @return 会话租约
+   * @throws SessionException 所有节点都无法建立会话，或等待空闲会话超时
+   */
+  public Lease acquire() throws SessionException {
+    if (closed) {
+      throw new SessionException("Session pool is closed.");
+    }
+    SessionException lastException = null;
+    for (Endpoint endpoint : candidates()) {
+      endpoint.outstanding.incrementAndGet();
+      // 长时间的导出和下载会一直占用会话，等待超时后换一个节点，不无限等待
+      boolean acquired;
+      try {
+        acquired = endpoint.permits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        endpoint.outstanding.decrementAndGet();
+        Thread.currentThread().interrupt();
+        throw new SessionException(e);
+      }
+      if (!acquired) {
+        endpoint.outstanding.decrementAndGet();
+        lastException =
+            new SessionException(
+                "Timed out waiting for an idle session to "
+                    + endpoint
+                    + " after "
+                    + acquireTimeoutMs
+                    + " ms.");
+        continue;
+      }
+      Session session = endpoint.idleSessions.poll();
+      if (session == null) {
+        try {
+          session = openSession(endpoint);
+        } catch (SessionException e) {
+          lastException = e;
+          endpoint.permits.release();
+          endpoint.outstanding.decrementAndGet();
+          markUnhealthy(endpoint);
+          continue;
+        }
+      }
+      return new Lease(endpoint, session);
+    }
+    throw lastException != null
+        ? lastException
+        : new SessionException("No IGinX endpoint is available.");
+  }
+
+  /** 节点数量 */
+  public int size() {
+    return endpoints.size();
+  }
+
+  public List<Endpoint> getEndpoints() {
+    return endpoints;
+  }
+
+  /** 关闭所有空闲会话，已租出的会话会在归还时关闭 */
+  public void close() {
+    closed = true;
+    for (Endpoint endpoint : endpoints) {
+      Session session;
+      while ((session = endpoint.idleSessions.poll()) != null) {
+        closeQuietly(session);
+      }
+    }
+  }
+
+  /** 按照负载均衡策略对节点排序，可用节点在前；若没有可用节点，则按最早可重试的顺序返回所有节点 */
+  private List<Endpoint> candidates() {
+    long now = System.currentTimeMillis();
+    List<Endpoint> healthy = new ArrayList<>();
+    List<Endpoint> unhealthy = new ArrayList<>();
+    int offset = Math.floorMod(roundRobin.getAndIncrement(), endpoints.size());
+    for (int i = 0; i < endpoints.size(); i++) {
+      Endpoint endpoint = endpoints.get((offset + i) % endpoints.size());
+      if (endpoint.unhealthyUntil <= now) {
+        healthy.add(endpoint);
+      } else {
+        unhealthy.add(endpoint);
+      }
+    }
+    // List.sort是稳定排序，得分相同时保持轮询的顺序
+    healthy.sort(Comparator.comparingDouble(this::score));
+    unhealthy.sort(Comparator.comparingLong(endpoint -> endpoint.unhealthyUntil));
+    healthy.addAll(unhealthy);
+    return healthy;
+  }
+
+  private double score(Endpoint endpoint) {
+    int outstanding = endpoint.outstanding.get();
+    if (POLICY_LATENCY.equals(policy)) {
+      // 还没有延迟数据的节点得分为0，会被优先选择，从而获得延迟数据
+      return (outstanding + 1) * endpoint.latencyMs;
+    }
+    return outstanding;
+  }
+
+  private Session openSession(Endpoint endpoint) throws SessionException {
+    Session session = new Session(endpoint.host, endpoint.port, username, password);
+    session.openSession();
+    return session;
+  }
+
+  private void markUnhealthy(Endpoint endpoint) {
+    endpoint.unhealthyUntil = System.currentTimeMillis() + retryIntervalMs;
+  }
+
+  /** 记录一次请求的耗时，只统计请求本身，不包括之后拉取结果和导出文件的时间 */
+  private void recordLatency(Endpoint endpoint, long elapsedNanos) {
+    double latencyMs = elapsedNanos / 1_000_000.0;
+    synchronized (endpoint) {
+      endpoint.latencyMs =
+          endpoint.latencyMs == 0
+              ? latencyMs
+              : (1 - LATENCY_EWMA_ALPHA) * endpoint.latencyMs + LATENCY_EWMA_ALPHA * latencyMs;
+    }
+  }
+
+  private void release(Lease lease) {
+    Endpoint endpoint = lease.endpoint;
+    if (lease.broken) {
+      markUnhealthy(endpoint);
+      closeQuietly(lease.session);
+      // 同一节点上的空闲会话很可能也已断开，一并关闭，下次使用时重新建立
+      Session session;
+      while ((session = endpoint.idleSessions.poll()) != null) {
+        closeQuietly(session);
+      }
+    } else {
+      endpoint.unhealthyUntil = 0;
+      if (closed) {
+        closeQuietly(lease.session);
+      } else {
+        endpoint.idleSessions.offer(lease.session);
+      }
+    }
+    endpoint.permits.release();
+    endpoint.outstanding.decrementAndGet();
+  }
+
+  private static void closeQuietly(Session session) {
+    try {
+      session.closeSession();
+    } catch (SessionException ignored) {
+    }
+  }
+
+  /** IGinX 节点及其负载信息 */
+  public static class Endpoint {
+    private final String host;
+    private final int port;
+    private final Semaphore permits;
+    private final ConcurrentLinkedQueue<Session> idleSessions = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private volatile double latencyMs = 0;
+    private volatile long unhealthyUntil = 0;
+
+    public Endpoint(String host, int port, int maxSessions) {
+      this.host = host;
+      this.port = port;
+      this.permits = new Semaphore(Math.max(1, maxSessions), true);
+    }
+
+    public String getHost() {
+      return host;
+    }
+
+    public int getPort() {
+      return port;
+    }
+
+    public int getOutstanding() {
+      return outstanding.get();
+    }
+
+    public double getLatencyMs() {
+      return latencyMs;
+    }
+
+    public boolean isHealthy() {
+      return unhealthyUntil <= System.currentTimeMillis();
+    }
+
+    @Override
+    public String toString() {
+      return host + ":" + port;
+    }
+  }
+
+  /** 使用会话发送的一次请求 */
+  public interface SessionCall<T> {
+    T apply(Session session) throws SessionException;
+  }
+
+  /** 会话租约，归还后不能再使用其中的会话 */
+  public class Lease implements AutoCloseable {
+    private final Endpoint endpoint;
+    private final Session session;
+    private boolean broken = false;
+    private boolean released = false;
+
+    private Lease(Endpoint endpoint, Session session) {
+      this.endpoint = endpoint;
+      this.session = session;
+    }
+
+    public Session getSession() {
+      return session;
+    }
+
+    public Endpoint getEndpoint() {
+      return endpoint;
+    }
+
+    /**
+     * 使用租用的会话发送一次请求，成功时将请求耗时计入节点的平均延迟
+     *
+     * @param call 请求
+     * @return 请求结果
+     * @throws SessionException 请求失败
+     */
+    public <T> T call(SessionCall<T> call) throws SessionException {
+      long start = System.nanoTime();
+      T result = call.apply(session);
+      recordLatency(endpoint, System.nanoTime() - start);
+      return result;
+    }
+
+    /** 标记会话已断开，归还时关闭该会话，并在一段时间内将节点标记为不可用 */
+    public void invalidate() {
+      broken = true;
+    }
+
+    @Override
+    public void close() {
+      if (!released) {
+        released = true;
+        release(this);
+      }
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package org.apache.zeppelin.iginx;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.imageio.ImageIO;
+
+/** 为导出的图片生成缩略图，缩略图缓存在导出文件夹下的 .thumbnails 文件夹中，重复展示时直接使用 */
+public class ImageThumbnails {
+
+  public static final String THUMBNAIL_DIR = ".thumbnails";
+
+  private static final String[] IMAGE_EXTENSIONS = {"jpg", "jpeg", "png", "gif", "bmp", "tiff"};
+
+  // 解码和缩放图片是CPU密集型操作，使用与CPU核数相同的线程并行生成
+  private static final ExecutorService executor =
+      Executors.newFixedThreadPool(
+          Runtime.getRuntime().availableProcessors(), new DaemonThreadFactory("iginx-thumbnail-"));
+
+  public static boolean isImage(String fileName) {
+    String lowerName = fileName.toLowerCase(Locale.ROOT);
+    for (String ext : IMAGE_EXTENSIONS) {
+      if (lowerName.endsWith("." + ext)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * 并行生成缩略图
+   *
+   * @param dir 图片所在文件夹
+   * @param fileNames 图片文件名
+   * @param maxSize 缩略图的最大宽度和高度(像素)
+   * @return 与fileNames一一对应的缩略图文件，无法解码的图片对应null
+   */
+  public static List<File> createThumbnails(File dir, List<String> fileNames, int maxSize) {
+    List<CompletableFuture<File>> futures = new ArrayList<>();
+    for (String fileName : fileNames) {
+      futures.add(
+          CompletableFuture.supplyAsync(
+              () -> {
+                try {
+                  return createThumbnail(dir, fileName, maxSize);
+                } catch (IOException e) {
+                  System.out.println("Can not create thumbnail for " + fileName + ": " + e);
+                  return null;
+                }
+              },
+              executor));
+    }
+    List<File> thumbnails = new ArrayList<>();
+    for (CompletableFuture<File> future : futures) {
+      thumbnails.add(future.join());
+    }
+    return thumbnails;
+  }
+
+  /**
+   * 生成单张图片的缩略图，已缓存的缩略图比原图新时直接返回
+   *
+   * @return 缩略图文件，图片格式不支持时返回null
+   * @throws IOException 读写图片失败
+   */
+  private static File createThumbnail(File dir, String fileName, int maxSize) throws IOException {
+    File source = new File(dir, fileName);
+    String lowerName = fileName.toLowerCase(Locale.ROOT);
+    // jpg没有透明通道，缩略图沿用jpg格式体积更小；其他格式统一使用png
+    boolean jpeg = lowerName.endsWith(".jpg") || lowerName.endsWith(".jpeg");
+    String format = jpeg ? "jpg" : "png";
+    File thumbnail = new File(new File(dir, THUMBNAIL_DIR), fileName + "." + format);
+    if (thumbnail.exists() && thumbnail.lastModified() >= source.lastModified()) {
+      return thumbnail;
+    }
+
+    BufferedImage image = ImageIO.read(source);
+    if (image == null) {
+      return null;
+    }
+    double scale = Math.min(1.0, (double) maxSize / Math.max(image.getWidth(), image.getHeight()));
+    int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+    int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+    BufferedImage scaled =
+        new BufferedImage(
+            width, height, jpeg ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+    Graphics2D graphics = scaled.createGraphics();
+    try {
+      graphics.setRenderingHint(
+          RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+      graphics.drawImage(image, 0, 0, width, height, null);
+    } finally {
+      graphics.dispose();
+    }
+
+    File thumbnailDir = thumbnail.getParentFile();
+    if (!thumbnailDir.exists() && !thumbnailDir.mkdirs() && !thumbnailDir.isDirectory()) {
+      throw new IOException("Can not create dir " + thumbnailDir);
+    }
+    // 先写入临时文件再重命名，避免并发展示同一文件夹时读到写了一半的缩略图
+    File tmpFile =
+        new File(thumbnailDir, thumbnail.getName() + "." + Thread.currentThread().getId());
+    if (!ImageIO.write(scaled, format, tmpFile)) {
+      return null;
+    }
+    if (!tmpFile.renameTo(thumbnail)) {
+      thumbnail.delete();
+      if (!tmpFile.renameTo(thumbnail)) {
+        tmpFile.delete();
+        throw new IOException("Can not write thumbnail " + thumbnail);
+      }
+    }
+    return thumbnail;
+  }
+}
@@ -0,0 +1,129 @@
+package org.apache.zeppelin.iginx;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 导出结果索引。以规范化的 SQL、数据版本和导出格式的哈希值为键记录导出文件夹，有效期内重复执行相同的导出时直接返回已有的文件。
+ *
+ * <p>索引和数据版本按下载文件夹在进程内共用，通过 {@link #shared} 获取。使用同一下载文件夹的任一解释器实例执行写入语句后递增数据版本，所有实例的缓存都会失效；
+ * 其他途径写入的数据只能等待缓存过期。
+ */
+public class OutfileIndex {
+
+  private static final Map<String, OutfileIndex> sharedIndexes = new ConcurrentHashMap<>();
+
+  private final String outfileDir;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private final AtomicLong dataVersion = new AtomicLong();
+
+  private OutfileIndex(String outfileDir) {
+    this.outfileDir = outfileDir;
+  }
+
+  /**
+   * 获取下载文件夹对应的索引，同一进程中使用同一下载文件夹的解释器实例共用
+   *
+   * @param outfileDir 下载文件夹
+   * @return 索引
+   */
+  public static OutfileIndex shared(String outfileDir) {
+    String key = Paths.get(outfileDir).toAbsolutePath().normalize().toString();
+    return sharedIndexes.computeIfAbsent(key, OutfileIndex::new);
+  }
+
+  /** 当前的数据版本 */
+  public long getDataVersion() {
+    return dataVersion.get();
+  }
+
+  /** 写入数据后递增数据版本，之前的导出结果不再复用 */
+  public void incrementDataVersion() {
+    dataVersion.incrementAndGet();
+  }
+
+  /**
+   * 计算导出结果的键
+   *
+   * @param sql 导出语句
+   * @param dataVersion 数据版本
+   * @param format 导出格式
+   * @return 键
+   */
+  public static String key(String sql, long dataVersion, String format) {
+    String normalizedSql = sql.trim().replaceAll("\\s+", " ");
+    if (normalizedSql.endsWith(";")) {
+      normalizedSql = normalizedSql.substring(0, normalizedSql.length() - 1).trim();
+    }
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      byte[] hash =
+          digest.digest(
+              (normalizedSql + "\n" + dataVersion + "\n" + format)
+                  .getBytes(StandardCharsets.UTF_8));
+      StringBuilder builder = new StringBuilder();
+      for (byte b : hash) {
+        builder.append(String.format("%02x", b));
+      }
+      return builder.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * 查找有效期内的导出结果
+   *
+   * @param key 键
+   * @param ttlMs 导出结果的有效期(毫秒)
+   * @return 导出文件夹名，没有结果、结果已过期或已被清理时返回null
+   */
+  public String lookup(String key, long ttlMs) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    long now = System.currentTimeMillis();
+    if (isExpired(entry, now) || !new File(outfileDir, entry.dirName).isDirectory()) {
+      entries.remove(key, entry);
+      return null;
+    }
+    // 共用索引的解释器实例的有效期可能不同，按查找者的有效期判断
+    return now - entry.createTime > ttlMs ? null : entry.dirName;
+  }
+
+  /**
+   * 记录导出结果，同时移除过期的记录
+   *
+   * @param key 键
+   * @param dirName 导出文件夹名
+   * @param ttlMs 导出结果的有效期(毫秒)
+   */
+  public void put(String key, String dirName, long ttlMs) {
+    long now = System.currentTimeMillis();
+    entries.values().removeIf(entry -> isExpired(entry, now));
+    entries.put(key, new Entry(dirName, now, now + ttlMs));
+  }
+
+  private boolean isExpired(Entry entry, long now) {
+    return now > entry.expireTime;
+  }
+
+  private static class Entry {
+    private final String dirName;
+    private final long createTime;
+    private final long expireTime;
+
+    private Entry(String dirName, long createTime, long expireTime) {
+      this.dirName = dirName;
+      this.createTime = createTime;
+      this.expireTime = expireTime;
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package org.apache.zeppelin.iginx;
+
+import cn.edu.tsinghua.iginx.constant.GlobalConstant;
+import cn.edu.tsinghua.iginx.exception.SessionException;
+import cn.edu.tsinghua.iginx.session.QueryDataSet;
+import cn.edu.tsinghua.iginx.utils.FormatUtils;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 将查询结果直接写入下载响应，不在服务器上保存文件。
+ *
+ * <p>只有一列数据时，与 OUTFILE 导出的列文件相同，依次写入每一行的原始字节，适合下载图片等二进制数据；有多列数据时写成CSV文件，第一行为表头。
+ */
+public class QueryStreamDownload implements SimpleFileServer.StreamDownload {
+
+  private static final String CSV_FILE_NAME = "result.csv";
+
+  private final QueryDataSet res;
+  private final IginxSessionPool.Lease lease;
+  private final String timePrecision;
+  private final List<String> columns;
+  private final boolean hasKey;
+
+  /**
+   * @param res 查询结果，下载结束后关闭
+   * @param lease 执行查询的会话租约，下载结束后归还
+   * @param timePrecision 时间戳精度
+   */
+  public QueryStreamDownload(QueryDataSet res, IginxSessionPool.Lease lease, String timePrecision) {
+    this.res = res;
+    this.lease = lease;
+    this.timePrecision = timePrecision;
+    this.columns = res.getColumnList();
+    this.hasKey = !columns.isEmpty() && columns.get(0).equals(GlobalConstant.KEY_NAME);
+  }
+
+  private boolean isSingleColumn() {
+    return columns.size() - (hasKey ? 1 : 0) == 1;
+  }
+
+  @Override
+  public String getFileName() {
+    if (isSingleColumn()) {
+      // 与导出的列文件名相同，将反斜杠替换为.
+      String column = columns.get(columns.size() - 1).replace("\\", ".");
+      return column.replace("\"", "_");
+    }
+    return CSV_FILE_NAME;
+  }
+
+  @Override
+  public void writeTo(OutputStream out) throws IOException {
+    try {
+      if (isSingleColumn()) {
+        writeBytes(out);
+      } else {
+        writeCsv(out);
+      }
+    } catch (SessionException e) {
+      // 拉取结果时会话出错，归还时丢弃该会话，不再交给其他语句使用
+      lease.invalidate();
+      throw new IOException(e.getMessage(), e);
+    }
+  }
+
+  private void writeBytes(OutputStream out) throws SessionException, IOException {
+    int index = columns.size() - 1;
+    while (res.hasMore()) {
+      List<byte[]> row = res.nextRowAsBytes();
+      if (row != null && row.get(index) != null) {
+        out.write(row.get(index));
+      }
+    }
+  }
+
+  private void writeCsv(OutputStream out) throws SessionException, IOException {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < columns.size(); i++) {
+      if (i != 0) {
+        builder.append(',');
+      }
+      appendCsvValue(builder, columns.get(i));
+    }
+    builder.append('\n');
+
+    while (res.hasMore()) {
+      Object[] row = res.nextRow();
+      for (int i = 0; i < row.length; i++) {
+        if (i != 0) {
+          builder.append(',');
+        }
+        if (i == 0 && hasKey && row[0] instanceof Long) {
+          builder.append(
+              FormatUtils.formatTime(
+                  (Long) row[0], FormatUtils.DEFAULT_TIME_FORMAT, timePrecision));
+        } else if (row[i] != null) {
+          appendCsvValue(builder, FormatUtils.valueToString(row[i]));
+        }
+      }
+      builder.append('\n');
+      // 积累一定数量的字符后再写入，减少编码和写入的次数
+      if (builder.length() >= 0x10000) {
+        out.write(builder.toString().getBytes(StandardCharsets.UTF_8));
+        builder.setLength(0);
+      }
+    }
+    out.write(builder.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /** 值中含有逗号、引号或换行时，用引号包围并将引号转义为两个引号 */
+  private static void appendCsvValue(StringBuilder builder, String value) {
+    boolean quote = false;
+    for (int i = 0; i < value.length() && !quote; i++) {
+      char c = value.charAt(i);
+      quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+    }
+    if (!quote) {
+      builder.append(value);
+      return;
+    }
+    builder.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"') {
+        builder.append('"');
+      }
+      builder.append(c);
+    }
+    builder.append('"');
+  }
+
+  @Override
+  public void close() {
+    try {
+      res.close();
+    } catch (SessionException e) {
+      System.out.println("Can not close query data set: " + e.getMessage());
+      lease.invalidate();
+    } finally {
+      lease.close();
+    }
+  }
+}
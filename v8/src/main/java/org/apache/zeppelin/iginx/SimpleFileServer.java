@@ -3,63 +3,434 @@ package org.apache.zeppelin.iginx;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.EnumSet;
 import java.util.Enumeration;
-import java.util.logging.FileHandler;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
+/**
+ * 提供导出文件下载的HTTP服务。
+ *
+ * <p>同一个JVM中每个端口只启动一个服务，多个解释器实例通过 {@link #acquire} 和 {@link #release} 引用计数共享。开启共享模式后，
+ * 如果端口已被其他解释器进程的文件服务占用，则不再启动新服务，而是将本进程的下载文件夹注册到该服务中，多个进程共用同一个端口。
+ * 注册后定期重新注册，占用端口的进程退出后由本进程接替端口；占用端口的进程在本进程的解释器实例全部关闭后，仍为其他进程注册的下载文件夹提供服务，直到它们全部注销。
+ *
+ * <p>注册请求必须是POST请求，并携带服务启动时写入的令牌。令牌文件位于临时文件夹中按用户区分的固定文件夹内，与下载文件夹无关，只有启动服务的用户可读。
+ * 只接受已存在的、位于服务的下载文件夹的上一级文件夹中的文件夹。
+ *
+ * <p>除了下载文件夹中的文件，还可以通过 {@link #registerStream} 注册下载时才生成内容的链接，内容经过gzip压缩后分块写入响应，不落盘。
+ */
 public class SimpleFileServer {
 
   public static String PREFIX = "/files";
-  private int port;
-  private String fileDir;
+  public static final String STREAM_PREFIX = "/stream";
+  private static final String REGISTER_PATH = "/register";
+  private static final String UNREGISTER_PATH = "/unregister";
+  private static final int REGISTER_TIMEOUT_MS = 3000;
+  private static final String TOKEN_DIR_PREFIX = "iginx-file-server-";
+  private static final String TOKEN_FILE_SUFFIX = ".token";
+  private static final int TOKEN_BYTES = 32;
+  // 关闭服务时，等待正在进行的下载完成的最长时间
+  private static final int STOP_DELAY_SECONDS = 5;
+  // 注册到其他进程的文件服务后，检查该服务是否仍然可用的间隔
+  private static final int HEARTBEAT_SECONDS = 5;
 
-  protected static final boolean isOnWin =
-      System.getProperty("os.name").toLowerCase().contains("win");
+  private static final Map<Integer, SimpleFileServer> servers = new HashMap<>();
+  private static final ScheduledExecutorService heartbeatExecutor =
+      Executors.newSingleThreadScheduledExecutor(
+          new DaemonThreadFactory("iginx-file-server-heartbeat-"));
 
+  private final int port;
+  private final boolean shared;
+
+  // 本进程中注册的下载文件夹，同一文件夹可能被多个解释器实例注册，因此允许重复
+  private final List<String> localRoots = new CopyOnWriteArrayList<>();
+  // 其他进程通过 /register 注册的下载文件夹
+  private final Set<String> remoteRoots = ConcurrentHashMap.newKeySet();
+  // 下载时才生成内容的链接，键为链接中的令牌
+  private final Map<String, StreamEntry> streams = new ConcurrentHashMap<>();
+  private int refCount = 0;
+
+  // 注册下载文件夹时需要携带的令牌，以及保存令牌的文件
+  private String registerToken = null;
+  private Path tokenFile = null;
+  // 其他进程只能注册此文件夹中的文件夹
+  private Path registerBase = null;
+  private Path serverRoot = null;
+
+  // 为null表示端口由其他进程的文件服务占用，本进程的下载文件夹已注册到该服务中
   private HttpServer httpServer = null;
+  private ExecutorService handlerExecutor = null;
+  private ScheduledFuture<?> heartbeat = null;
 
-  public SimpleFileServer(int port, String fileDir) {
+  private SimpleFileServer(int port, boolean shared) {
     this.port = port;
-    this.fileDir = fileDir;
+    this.shared = shared;
   }
 
-  public void start() throws IOException {
-    // 检测端口是否被占用，如果占用则kill掉
-    try {
-      new Socket("localhost", port).close();
-      if (isOnWin) {
-        Runtime.getRuntime()
-            .exec(
-                "for /f \"tokens=5\" %a in ('netstat -ano ^| findstr :"
-                    + port
-                    + "') do taskkill /F /PID %a");
+  /**
+   * 获取指定端口上的文件服务并注册下载文件夹，不再使用时需要调用 {@link #release}
+   *
+   * @param port 端口
+   * @param fileDir 下载文件夹
+   * @param shared 端口被其他进程的文件服务占用时，是否将下载文件夹注册到该服务中
+   * @return 文件服务
+   * @throws IOException 端口被占用且无法共享
+   */
+  public static SimpleFileServer acquire(int port, String fileDir, boolean shared)
+      throws IOException {
+    synchronized (servers) {
+      SimpleFileServer server = servers.get(port);
+      if (server == null) {
+        server = new SimpleFileServer(port, shared);
+        server.localRoots.add(fileDir);
+        server.start();
+        servers.put(port, server);
       } else {
-        Runtime.getRuntime().exec("kill -9 $(lsof -t -i:" + port + ")");
+        server.localRoots.add(fileDir);
+        if (server.httpServer == null) {
+          server.sendRootRequest(REGISTER_PATH, fileDir);
+        }
       }
+      server.refCount++;
+      return server;
+    }
+  }
+
+  /**
+   * 注销下载文件夹，最后一个使用者注销后关闭服务。其他进程仍有下载文件夹注册在本服务中时，继续提供服务直到它们全部注销
+   *
+   * @param fileDir 下载文件夹
+   */
+  public void release(String fileDir) {
+    synchronized (servers) {
+      localRoots.remove(fileDir);
+      if (httpServer == null && !localRoots.contains(fileDir)) {
+        try {
+          sendRootRequest(UNREGISTER_PATH, fileDir);
+        } catch (IOException e) {
+          // 对方服务已关闭，不需要注销
+        }
+      }
+      if (--refCount == 0) {
+        stopHeartbeat();
+        if (httpServer != null && !remoteRoots.isEmpty()) {
+          return;
+        }
+        stop();
+        servers.remove(port);
+      }
+    }
+  }
+
+  /** 本进程不再使用、其他进程也已全部注销时关闭服务 */
+  private void stopIfUnused() {
+    synchronized (servers) {
+      if (refCount == 0 && remoteRoots.isEmpty() && servers.get(port) == this) {
+        stop();
+        servers.remove(port);
+      }
+    }
+  }
+
+  /** 定期检查其他进程的文件服务，重新注册本进程的下载文件夹，服务已关闭时接替端口 */
+  private void startHeartbeat() {
+    if (heartbeat != null) {
+      return;
+    }
+    heartbeat =
+        heartbeatExecutor.scheduleWithFixedDelay(
+            () -> {
+              try {
+                ensureAvailable();
+              } catch (IOException e) {
+                System.out.println(
+                    "Can not reach file server on port " + port + ": " + e.getMessage());
+              }
+            },
+            HEARTBEAT_SECONDS,
+            HEARTBEAT_SECONDS,
+            TimeUnit.SECONDS);
+  }
+
+  private void stopHeartbeat() {
+    if (heartbeat != null) {
+      heartbeat.cancel(false);
+      heartbeat = null;
+    }
+  }
+
+  /**
+   * 确认下载服务可用。如果本进程使用的是其他进程的文件服务，而该服务已经关闭，则由本进程重新启动服务
+   *
+   * @throws IOException 无法启动或注册到文件服务
+   */
+  public void ensureAvailable() throws IOException {
+    synchronized (servers) {
+      if (httpServer != null) {
+        return;
+      }
+      try {
+        for (String root : new LinkedHashSet<>(localRoots)) {
+          sendRootRequest(REGISTER_PATH, root);
+        }
+      } catch (IOException e) {
+        start();
+      }
+    }
+  }
+
+  /**
+   * 注册下载时才生成内容的链接，链接为 {@link #STREAM_PREFIX}/令牌
+   *
+   * @param owner 注册链接的对象，可以通过 {@link #unregisterStreams} 注销其注册的所有链接
+   * @param token 令牌，应当是难以猜测的随机字符串
+   * @param source 下载内容
+   * @param ttlMs 链接的有效期(毫秒)
+   * @return 端口由其他进程的文件服务占用、无法在本进程中生成内容时返回false
+   */
+  public boolean registerStream(Object owner, String token, StreamSource source, long ttlMs) {
+    synchronized (servers) {
+      if (httpServer == null) {
+        return false;
+      }
+    }
+    long now = System.currentTimeMillis();
+    streams.values().removeIf(entry -> entry.expireTime < now);
+    streams.put(token, new StreamEntry(owner, source, now + ttlMs));
+    return true;
+  }
+
+  /** 注销owner注册的所有链接 */
+  public void unregisterStreams(Object owner) {
+    streams.values().removeIf(entry -> entry.owner == owner);
+  }
+
+  /** 实际提供服务的端口 */
+  public int getPort() {
+    HttpServer server = httpServer;
+    return server != null ? server.getAddress().getPort() : port;
+  }
+
+  private void start() throws IOException {
+    try {
+      httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+    } catch (BindException e) {
+      if (!shared) {
+        throw new IOException("Port " + port + " is already in use.", e);
+      }
+      // 端口已被占用，尝试注册到占用端口的文件服务中
+      try {
+        for (String root : new LinkedHashSet<>(localRoots)) {
+          sendRootRequest(REGISTER_PATH, root);
+        }
+      } catch (IOException registerException) {
+        throw new IOException(
+            "Port " + port + " is already in use by another process.", registerException);
+      }
+      startHeartbeat();
+      return;
+    }
+    stopHeartbeat();
+    try {
+      writeRegisterToken();
     } catch (IOException e) {
-      // do nothing
+      // 无法写入令牌时仍然提供下载服务，只是其他进程无法注册
+      System.out.println("Can not write file server token: " + e.getMessage());
     }
-    httpServer = HttpServer.create(new InetSocketAddress(port), 0);
-    httpServer.createContext(PREFIX, new FileHandler(fileDir));
+    httpServer.createContext(PREFIX, new FileHandler());
+    httpServer.createContext(STREAM_PREFIX, new StreamHandler());
+    httpServer.createContext(REGISTER_PATH, new RegisterHandler());
+    httpServer.createContext(UNREGISTER_PATH, new RegisterHandler());
+    // 下载时执行查询可能耗时较长，每个请求使用单独的线程，避免阻塞其他下载
+    handlerExecutor = Executors.newCachedThreadPool(new DaemonThreadFactory("iginx-file-server-"));
+    httpServer.setExecutor(handlerExecutor);
     httpServer.start();
   }
 
-  public void stop() {
+  /** 生成注册令牌，写入令牌文件夹中只有当前用户可读写的文件 */
+  private void writeRegisterToken() throws IOException {
+    serverRoot = new File(localRoots.get(0)).getCanonicalFile().toPath();
+    Files.createDirectories(serverRoot);
+    Path parent = serverRoot.getParent();
+    // 下载文件夹位于文件系统根目录下时，只接受下载文件夹中的文件夹
+    registerBase = parent == null || parent.getNameCount() == 0 ? serverRoot : parent;
+    Path tokenDir = createTokenDir();
+
+    byte[] bytes = new byte[TOKEN_BYTES];
+    new SecureRandom().nextBytes(bytes);
+    StringBuilder builder = new StringBuilder();
+    for (byte b : bytes) {
+      builder.append(String.format("%02x", b));
+    }
+    String token = builder.toString();
+
+    Path tmp;
+    try {
+      tmp =
+          Files.createTempFile(
+              tokenDir,
+              null,
+              TOKEN_FILE_SUFFIX,
+              PosixFilePermissions.asFileAttribute(
+                  EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE)));
+    } catch (UnsupportedOperationException e) {
+      // 不支持POSIX权限的文件系统上，临时文件默认只有当前用户可访问
+      tmp = Files.createTempFile(tokenDir, null, TOKEN_FILE_SUFFIX);
+    }
+    Files.write(tmp, token.getBytes(StandardCharsets.US_ASCII));
+    Path file = tokenPath(getPort());
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    registerToken = token;
+    tokenFile = file;
+  }
+
+  /** 保存令牌的文件夹，同一用户的所有解释器进程使用同一个文件夹，与各自的下载文件夹无关 */
+  private static Path tokenDir() {
+    return Paths.get(
+        System.getProperty("java.io.tmpdir"), TOKEN_DIR_PREFIX + System.getProperty("user.name"));
+  }
+
+  /** 端口对应的令牌文件 */
+  static Path tokenPath(int port) {
+    return tokenDir().resolve(port + TOKEN_FILE_SUFFIX);
+  }
+
+  /**
+   * 创建只有当前用户可访问的令牌文件夹，文件夹已存在时检查其所有者
+   *
+   * @return 令牌文件夹
+   * @throws IOException 无法创建文件夹，或文件夹属于其他用户
+   */
+  private static Path createTokenDir() throws IOException {
+    Path dir = tokenDir();
+    try {
+      Files.createDirectories(
+          dir,
+          PosixFilePermissions.asFileAttribute(
+              EnumSet.of(
+                  PosixFilePermission.OWNER_READ,
+                  PosixFilePermission.OWNER_WRITE,
+                  PosixFilePermission.OWNER_EXECUTE)));
+    } catch (UnsupportedOperationException e) {
+      Files.createDirectories(dir);
+    }
+    String owner = Files.getOwner(dir).getName();
+    if (!owner.equals(System.getProperty("user.name"))) {
+      throw new IOException("File server token directory " + dir + " is owned by " + owner + ".");
+    }
+    return dir;
+  }
+
+  /** 读取占用端口的服务写入的令牌 */
+  private String readRegisterToken() throws IOException {
+    Path file = tokenPath(port);
+    if (!Files.isRegularFile(file)) {
+      throw new IOException("File server token " + file + " does not exist.");
+    }
+    return new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim();
+  }
+
+  private void stop() {
+    if (tokenFile != null) {
+      try {
+        Files.deleteIfExists(tokenFile);
+      } catch (IOException e) {
+        System.out.println("Can not delete file server token: " + e.getMessage());
+      }
+      tokenFile = null;
+      registerToken = null;
+    }
     if (httpServer != null) {
-      httpServer.stop(0);
+      httpServer.stop(STOP_DELAY_SECONDS);
+      httpServer = null;
+      handlerExecutor.shutdown();
+      handlerExecutor = null;
     }
   }
 
-  static class FileHandler implements HttpHandler {
-    private String basePath;
+  private void sendRootRequest(String path, String root) throws IOException {
+    byte[] body =
+        ("root="
+                + URLEncoder.encode(root, "UTF-8")
+                + "&token="
+                + URLEncoder.encode(readRegisterToken(), "UTF-8"))
+            .getBytes(StandardCharsets.UTF_8);
+    URL url = new URL("http://127.0.0.1:" + port + path);
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setConnectTimeout(REGISTER_TIMEOUT_MS);
+    connection.setReadTimeout(REGISTER_TIMEOUT_MS);
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+    try {
+      try (OutputStream out = connection.getOutputStream()) {
+        out.write(body);
+      }
+      int code = connection.getResponseCode();
+      if (code != 200) {
+        throw new IOException("Unexpected response " + code + " from " + url);
+      }
+    } finally {
+      connection.disconnect();
+    }
+  }
 
-    public FileHandler(String basePath) {
-      this.basePath = basePath;
+  /**
+   * 在所有注册的下载文件夹中查找文件，不允许访问下载文件夹之外的文件
+   *
+   * @param fileName 请求的文件相对路径
+   * @return 文件，找不到时返回null
+   */
+  private File findFile(String fileName) {
+    while (fileName.startsWith("/")) {
+      fileName = fileName.substring(1);
+    }
+    Set<String> roots = new LinkedHashSet<>(localRoots);
+    roots.addAll(remoteRoots);
+    for (String root : roots) {
+      Path rootPath = Paths.get(root).toAbsolutePath().normalize();
+      Path filePath = rootPath.resolve(fileName).normalize();
+      if (!filePath.startsWith(rootPath)) {
+        continue;
+      }
+      File file = filePath.toFile();
+      if (file.exists() && !file.isDirectory()) {
+        return file;
+      }
     }
+    return null;
+  }
+
+  class FileHandler implements HttpHandler {
 
     @Override
     public void handle(HttpExchange exchange) throws IOException {
@@ -70,10 +441,10 @@ public class SimpleFileServer {
         // 获取请求的文件名，并构建文件路径
         String requestPath = exchange.getRequestURI().getPath();
         String fileName = requestPath.substring(PREFIX.length());
-        File file = new File(basePath + fileName);
+        File file = findFile(fileName);
 
         // 检查文件是否存在且不是目录
-        if (file.exists() && !file.isDirectory()) {
+        if (file != null) {
           // 设置响应头为文件下载
           exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
           exchange
@@ -106,6 +477,189 @@ public class SimpleFileServer {
       }
     }
   }
+
+  /** 处理下载时才生成内容的链接，客户端支持时使用gzip压缩，内容长度未知，分块传输 */
+  class StreamHandler implements HttpHandler {
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+      String token = exchange.getRequestURI().getPath().substring(STREAM_PREFIX.length());
+      while (token.startsWith("/")) {
+        token = token.substring(1);
+      }
+      StreamEntry entry = streams.get(token);
+      if (entry == null || entry.expireTime < System.currentTimeMillis()) {
+        sendText(exchange, 404, "404 (Not Found)，下载链接已过期，请重新执行查询");
+        return;
+      }
+
+      StreamDownload download;
+      try {
+        download = entry.source.open();
+      } catch (IOException e) {
+        sendText(exchange, 500, "500 (Internal Server Error)，执行查询失败：" + e.getMessage());
+        return;
+      }
+      try {
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange
+            .getResponseHeaders()
+            .set("Content-Disposition", "attachment; filename=\"" + download.getFileName() + "\"");
+        if (gzip) {
+          exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream os =
+            gzip
+                ? new GZIPOutputStream(exchange.getResponseBody(), 0x10000)
+                : exchange.getResponseBody();
+        try (OutputStream out = new BufferedOutputStream(os, 0x10000)) {
+          download.writeTo(out);
+        }
+      } catch (IOException e) {
+        // 响应头已发送，只能中断连接，客户端会看到下载失败
+        System.out.println("Stream download failed: " + e.getMessage());
+      } finally {
+        download.close();
+        exchange.close();
+      }
+    }
+
+    private void sendText(HttpExchange exchange, int code, String text) throws IOException {
+      byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+      exchange.sendResponseHeaders(code, bytes.length);
+      try (OutputStream os = exchange.getResponseBody()) {
+        os.write(bytes);
+      }
+    }
+  }
+
+  /** 下载时才生成的内容 */
+  public interface StreamSource {
+    /**
+     * 开始生成内容，如执行查询
+     *
+     * @return 下载内容
+     * @throws IOException 无法生成内容，此时返回500错误
+     */
+    StreamDownload open() throws IOException;
+  }
+
+  /** 一次下载的内容 */
+  public interface StreamDownload extends Closeable {
+    /** 下载的文件名 */
+    String getFileName();
+
+    /** 将内容写入响应 */
+    void writeTo(OutputStream out) throws IOException;
+
+    @Override
+    void close();
+  }
+
+  private static class StreamEntry {
+    private final Object owner;
+    private final StreamSource source;
+    private final long expireTime;
+
+    private StreamEntry(Object owner, StreamSource source, long expireTime) {
+      this.owner = owner;
+      this.source = source;
+      this.expireTime = expireTime;
+    }
+  }
+
+  /**
+   * 检查其他进程注册的下载文件夹：必须是已存在的文件夹，规范化后位于服务的下载文件夹的上一级文件夹中，不能是该文件夹本身或其上级文件夹
+   *
+   * @param root 注册的文件夹
+   * @return 规范化后的路径，不允许注册时返回null
+   */
+  private String checkRemoteRoot(String root) {
+    if (registerBase == null || root.isEmpty()) {
+      return null;
+    }
+    Path path;
+    try {
+      path = new File(root).getCanonicalFile().toPath();
+    } catch (IOException e) {
+      return null;
+    }
+    if (!Files.isDirectory(path) || path.getNameCount() == 0) {
+      return null;
+    }
+    if (path.equals(serverRoot) || path.startsWith(registerBase) && !path.equals(registerBase)) {
+      return path.toString();
+    }
+    return null;
+  }
+
+  /** 处理其他解释器进程注册、注销下载文件夹的请求，只接受本机发出的、携带令牌的POST请求 */
+  class RegisterHandler implements HttpHandler {
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      int code;
+      if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+        code = 405;
+      } else if (!exchange.getRemoteAddress().getAddress().isLoopbackAddress()) {
+        code = 403;
+      } else {
+        Map<String, String> params = parseForm(exchange.getRequestBody());
+        String token = params.get("token");
+        String expected = registerToken;
+        if (expected == null
+            || token == null
+            || !MessageDigest.isEqual(
+                expected.getBytes(StandardCharsets.US_ASCII),
+                token.getBytes(StandardCharsets.US_ASCII))) {
+          code = 403;
+        } else {
+          String root = params.get("root") == null ? null : checkRemoteRoot(params.get("root"));
+          if (root == null) {
+            code = 400;
+          } else {
+            if (exchange.getRequestURI().getPath().startsWith(REGISTER_PATH)) {
+              remoteRoots.add(root);
+            } else {
+              remoteRoots.remove(root);
+              // 关闭服务需要等待请求结束，不能在处理请求的线程中进行
+              heartbeatExecutor.execute(SimpleFileServer.this::stopIfUnused);
+            }
+            code = 200;
+          }
+        }
+      }
+      exchange.sendResponseHeaders(code, -1);
+      exchange.close();
+    }
+
+    private Map<String, String> parseForm(InputStream in) throws IOException {
+      Map<String, String> params = new HashMap<>();
+      byte[] buffer = new byte[0x1000];
+      StringBuilder builder = new StringBuilder();
+      int len;
+      while ((len = in.read(buffer)) != -1) {
+        builder.append(new String(buffer, 0, len, StandardCharsets.UTF_8));
+        if (builder.length() > 0x10000) {
+          return params;
+        }
+      }
+      for (String param : builder.toString().split("&")) {
+        int index = param.indexOf('=');
+        if (index > 0) {
+          params.put(
+              param.substring(0, index), URLDecoder.decode(param.substring(index + 1), "UTF-8"));
+        }
+      }
+      return params;
+    }
+  }
+
   /**
    * 获取本地主机地址，普通方法会获取到回环地址or错误网卡地址，因此需要使用更复杂的方法获取
    *
@@ -0,0 +1,358 @@
+package org.apache.zeppelin.iginx;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.zeppelin.interpreter.thrift.InterpreterCompletion;
+
+/**
+ * SQL 自动补全，补全关键字、函数名和序列路径。
+ *
+ * <p>序列路径按 "." 拆分后存储在前缀树中，相同的路径段共用一个字符串，每个节点的子节点按路径段排序存放在数组中，查找时二分定位前缀。 路径和函数列表由后台线程定期从 IGinX
+ * 获取，构建好新的前缀树后整体替换，补全时只读取内存中的数据，不会访问 IGinX。
+ *
+ * <p>解释器通过 {@link #acquire} 获取进程内共用的补全缓存，连接同一组 IGinX 节点的同一用户的解释器实例共用一份缓存，只由一个后台线程刷新。
+ */
+public class SqlCompleter {
+
+  private static final String META_KEYWORD = "keyword";
+  private static final String META_FUNCTION = "function";
+  private static final String META_PATH = "path";
+  private static final String META_COLUMN = "column";
+
+  private static final String[] KEYWORDS = {
+    "add",
+    "and",
+    "as",
+    "asc",
+    "by",
+    "cancel",
+    "cluster",
+    "columns",
+    "commit",
+    "config",
+    "create",
+    "csv",
+    "data",
+    "delete",
+    "desc",
+    "distinct",
+    "drop",
+    "except",
+    "explain",
+    "false",
+    "from",
+    "full",
+    "function",
+    "functions",
+    "grant",
+    "group",
+    "having",
+    "infile",
+    "info",
+    "inner",
+    "insert",
+    "intersect",
+    "into",
+    "job",
+    "join",
+    "key",
+    "left",
+    "like",
+    "limit",
+    "load",
+    "not",
+    "null",
+    "offset",
+    "on",
+    "or",
+    "order",
+    "outer",
+    "outfile",
+    "python",
+    "register",
+    "replica",
+    "right",
+    "select",
+    "set",
+    "show",
+    "showimg",
+    "stream",
+    "time",
+    "transform",
+    "true",
+    "udaf",
+    "udsf",
+    "udtf",
+    "union",
+    "user",
+    "using",
+    "values",
+    "where",
+    "with"
+  };
+
+  private static final String[] BUILTIN_FUNCTIONS = {
+    "avg", "count", "first", "first_value", "last", "last_value", "max", "min", "sum"
+  };
+
+  private static final Map<String, SqlCompleter> sharedCompleters = new HashMap<>();
+  private static final ScheduledExecutorService refresher =
+      Executors.newSingleThreadScheduledExecutor(
+          new DaemonThreadFactory("iginx-completion-refresher-"));
+
+  private final int maxResults;
+  private final String[] keywords;
+
+  // 共用缓存的解释器实例提供的加载方式，刷新时使用第一个可用的
+  private final List<Loader> loaders = new CopyOnWriteArrayList<>();
+  private String sharedKey = null;
+  private ScheduledFuture<?> refreshTask = null;
+
+  private volatile String[] functions;
+  private volatile Node pathRoot = Node.EMPTY;
+
+  public SqlCompleter(int maxResults) {
+    this.maxResults = maxResults;
+    this.keywords = sorted(Arrays.asList(KEYWORDS));
+    this.functions = sorted(Arrays.asList(BUILTIN_FUNCTIONS));
+  }
+
+  /**
+   * 获取进程内共用的补全缓存并注册加载方式，不再使用时需要调用 {@link #release}
+   *
+   * @param key 缓存的键，如IGinX节点列表和用户名
+   * @param maxResults 最多返回的补全候选数
+   * @param refreshIntervalMs 刷新间隔(毫秒)，小于等于0时不刷新，只补全关键字和内置函数
+   * @param loader 从IGinX加载序列路径和函数名
+   * @return 补全缓存
+   */
+  public static SqlCompleter acquire(
+      String key, int maxResults, long refreshIntervalMs, Loader loader) {
+    String sharedKey = key + "/" + maxResults + "/" + refreshIntervalMs;
+    synchronized (sharedCompleters) {
+      SqlCompleter completer = sharedCompleters.get(sharedKey);
+      if (completer == null) {
+        completer = new SqlCompleter(maxResults);
+        completer.sharedKey = sharedKey;
+        sharedCompleters.put(sharedKey, completer);
+      }
+      completer.loaders.add(loader);
+      if (completer.refreshTask == null && refreshIntervalMs > 0) {
+        completer.refreshTask =
+            refresher.scheduleWithFixedDelay(
+                completer::refresh, 0, refreshIntervalMs, TimeUnit.MILLISECONDS);
+      }
+      return completer;
+    }
+  }
+
+  /**
+   * 注销加载方式，最后一个使用者注销后停止刷新
+   *
+   * @param loader {@link #acquire} 时注册的加载方式
+   */
+  public void release(Loader loader) {
+    synchronized (sharedCompleters) {
+      loaders.remove(loader);
+      if (loaders.isEmpty()) {
+        if (refreshTask != null) {
+          refreshTask.cancel(false);
+          refreshTask = null;
+        }
+        sharedCompleters.remove(sharedKey, this);
+      }
+    }
+  }
+
+  private void refresh() {
+    for (Loader loader : loaders) {
+      try {
+        loader.load(this);
+        return;
+      } catch (Exception e) {
+        System.out.println("Can not refresh completion cache: " + e.getMessage());
+      }
+    }
+  }
+
+  /** 从IGinX加载序列路径和函数名，通过 {@link #updatePaths} 和 {@link #updateFunctions} 更新缓存 */
+  public interface Loader {
+    void load(SqlCompleter completer) throws Exception;
+  }
+
+  /**
+   * 替换序列路径
+   *
+   * @param paths 所有序列路径
+   */
+  public void updatePaths(Collection<String> paths) {
+    Builder root = new Builder();
+    // 相同的路径段只保留一个字符串对象
+    Map<String, String> segmentPool = new HashMap<>();
+    for (String path : paths) {
+      Builder node = root;
+      for (String segment : path.split("\\.")) {
+        String pooled = segmentPool.putIfAbsent(segment, segment);
+        node = node.children.computeIfAbsent(pooled != null ? pooled : segment, k -> new Builder());
+      }
+      node.leaf = true;
+    }
+    pathRoot = root.build();
+  }
+
+  /**
+   * 替换自定义函数名，内置函数始终保留
+   *
+   * @param udfNames 自定义函数名
+   */
+  public void updateFunctions(Collection<String> udfNames) {
+    List<String> names = new ArrayList<>(Arrays.asList(BUILTIN_FUNCTIONS));
+    for (String name : udfNames) {
+      names.add(name.toLowerCase(Locale.ROOT));
+    }
+    functions = sorted(names);
+  }
+
+  /**
+   * 补全光标前的单词。单词中含有 "." 时补全序列路径的最后一段，否则补全关键字、函数名和第一段路径
+   *
+   * @param buf 段落文本
+   * @param cursor 光标位置
+   * @return 补全候选
+   */
+  public List<InterpreterCompletion> complete(String buf, int cursor) {
+    List<InterpreterCompletion> completions = new ArrayList<>();
+    if (buf == null) {
+      return completions;
+    }
+    cursor = Math.max(0, Math.min(cursor, buf.length()));
+    int start = cursor;
+    while (start > 0 && isWordChar(buf.charAt(start - 1))) {
+      start--;
+    }
+    String word = buf.substring(start, cursor);
+
+    int lastDot = word.lastIndexOf('.');
+    if (lastDot < 0) {
+      String lowerWord = word.toLowerCase(Locale.ROOT);
+      // 用户输入大写时补全大写关键字和函数名
+      boolean upperCase = !word.equals(lowerWord);
+      addWords(completions, keywords, lowerWord, upperCase, META_KEYWORD);
+      addWords(completions, functions, lowerWord, upperCase, META_FUNCTION);
+      addPaths(completions, pathRoot, word);
+    } else {
+      Node node = pathRoot.find(word.substring(0, lastDot).split("\\.", -1));
+      if (node != null) {
+        addPaths(completions, node, word.substring(lastDot + 1));
+      }
+    }
+    return completions;
+  }
+
+  private void addWords(
+      List<InterpreterCompletion> completions,
+      String[] words,
+      String prefix,
+      boolean upperCase,
+      String meta) {
+    for (int i = lowerBound(words, prefix);
+        i < words.length && words[i].startsWith(prefix) && completions.size() < maxResults;
+        i++) {
+      String word = upperCase ? words[i].toUpperCase(Locale.ROOT) : words[i];
+      completions.add(new InterpreterCompletion(word, word, meta));
+    }
+  }
+
+  // Zeppelin编辑器以 "." 作为单词分隔符，只替换最后一段，因此只返回路径的最后一段
+  private void addPaths(List<InterpreterCompletion> completions, Node node, String prefix) {
+    for (int i = lowerBound(node.segments, prefix);
+        i < node.segments.length
+            && node.segments[i].startsWith(prefix)
+            && completions.size() < maxResults;
+        i++) {
+      Node child = node.children[i];
+      completions.add(
+          new InterpreterCompletion(
+              node.segments[i], node.segments[i], child.leaf ? META_COLUMN : META_PATH));
+    }
+  }
+
+  private static boolean isWordChar(char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '.';
+  }
+
+  private static String[] sorted(Collection<String> words) {
+    return new TreeSet<>(words).toArray(new String[0]);
+  }
+
+  /** 返回有序数组中第一个不小于key的元素下标 */
+  private static int lowerBound(String[] array, String key) {
+    int index = Arrays.binarySearch(array, key);
+    return index >= 0 ? index : -index - 1;
+  }
+
+  /** 构建完成后不再修改的前缀树节点 */
+  private static class Node {
+    private static final Node EMPTY = new Node(new String[0], new Node[0], false);
+    // 没有子节点的序列，所有这样的节点共用一个对象
+    private static final Node LEAF = new Node(new String[0], new Node[0], true);
+
+    // 按字典序排列的子节点路径段，与children一一对应
+    private final String[] segments;
+    private final Node[] children;
+    // 该节点本身是否是一条序列
+    private final boolean leaf;
+
+    private Node(String[] segments, Node[] children, boolean leaf) {
+      this.segments = segments;
+      this.children = children;
+      this.leaf = leaf;
+    }
+
+    /** 按路径段逐级查找节点，找不到时返回null */
+    private Node find(String[] path) {
+      Node node = this;
+      for (String segment : path) {
+        int index = Arrays.binarySearch(node.segments, segment);
+        if (index < 0) {
+          return null;
+        }
+        node = node.children[index];
+      }
+      return node;
+    }
+  }
+
+  /** 构建前缀树时使用的可变节点 */
+  private static class Builder {
+    private final TreeMap<String, Builder> children = new TreeMap<>();
+    private boolean leaf = false;
+
+    private Node build() {
+      if (children.isEmpty()) {
+        return leaf ? Node.LEAF : Node.EMPTY;
+      }
+      String[] segments = new String[children.size()];
+      Node[] nodes = new Node[children.size()];
+      int i = 0;
+      for (Map.Entry<String, Builder> entry : children.entrySet()) {
+        segments[i] = entry.getKey();
+        nodes[i] = entry.getValue().build();
+        i++;
+      }
+      return new Node(segments, nodes, leaf);
+    }
+  }
+}
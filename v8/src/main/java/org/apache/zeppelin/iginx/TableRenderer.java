@@ -0,0 +1,198 @@
+package org.apache.zeppelin.iginx;
+
+import cn.edu.tsinghua.iginx.constant.GlobalConstant;
+import cn.edu.tsinghua.iginx.utils.FormatUtils;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 将查询结果渲染为 Zeppelin 表格（制表符分隔的文本）。
+ *
+ * <p>所有单元格直接写入当前线程复用的缓冲区：数值直接追加到缓冲区，不先转换为字符串；含有换行的单元格在一次遍历中转换为HTML。key列使用按时间精度缓存的格式化方法，
+ * 默认时间格式下直接追加数字，不为每个单元格调用 FormatUtils.formatTime。
+ */
+public class TableRenderer {
+
+  private static final String TAB_HTML = "&nbsp;&nbsp;&nbsp;&nbsp;";
+  private static final String NEWLINE_HTML = "<br>";
+  private static final String HTML_PREFIX = "%html";
+
+  private static final int INITIAL_CAPACITY = 1 << 16;
+  // 渲染过特别大的结果后不保留缓冲区，避免长期占用内存
+  private static final int MAX_RETAINED_CAPACITY = 1 << 22;
+
+  // 检查 FormatUtils.formatTime 是否按原值输出时使用的key，包括边界值
+  private static final long[] PROBE_KEYS = {
+    0L,
+    1L,
+    -1L,
+    1000L,
+    1_700_000_000_123L,
+    1_700_000_000_123_456_789L,
+    Long.MAX_VALUE,
+    Long.MAX_VALUE - 1,
+    Long.MIN_VALUE,
+    Long.MIN_VALUE + 1
+  };
+
+  private static final Map<String, KeyFormatter> keyFormatters = new ConcurrentHashMap<>();
+
+  private final ThreadLocal<StringBuilder> buffers =
+      ThreadLocal.withInitial(() -> new StringBuilder(INITIAL_CAPACITY));
+
+  private final KeyFormatter keyFormatter;
+
+  public TableRenderer(String timePrecision) {
+    this.keyFormatter = keyFormatter(timePrecision);
+  }
+
+  /**
+   * 获取指定时间精度的key格式化方法，每种精度只创建一次。默认时间格式下 FormatUtils.formatTime 按原值输出时直接追加数字，否则调用 FormatUtils
+   *
+   * @param timePrecision 时间精度
+   * @return 格式化方法
+   */
+  static KeyFormatter keyFormatter(String timePrecision) {
+    return keyFormatters.computeIfAbsent(
+        timePrecision,
+        precision -> {
+          for (long key : PROBE_KEYS) {
+            if (!Long.toString(key)
+                .equals(FormatUtils.formatTime(key, FormatUtils.DEFAULT_TIME_FORMAT, precision))) {
+              return (builder, k) ->
+                  builder.append(
+                      FormatUtils.formatTime(k, FormatUtils.DEFAULT_TIME_FORMAT, precision));
+            }
+          }
+          return StringBuilder::append;
+        });
+  }
+
+  /**
+   * 渲染查询结果，不经过 getResultInList 生成每一行的字符串列表
+   *
+   * @param keys 每一行的时间戳，没有key列时为null
+   * @param paths 列名
+   * @param values 每一行的值
+   * @param rows 需要渲染的行下标，为null时渲染所有行
+   * @return 表格
+   */
+  public String renderQuery(
+      long[] keys, List<String> paths, List<List<Object>> values, int[] rows) {
+    StringBuilder builder = acquireBuffer();
+    if (keys != null) {
+      builder.append(GlobalConstant.KEY_NAME);
+    }
+    for (int i = 0; i < paths.size(); i++) {
+      if (keys != null || i != 0) {
+        builder.append('\t');
+      }
+      builder.append(paths.get(i));
+    }
+    builder.append('\n');
+
+    int rowCount = rows != null ? rows.length : values.size();
+    for (int r = 0; r < rowCount; r++) {
+      int row = rows != null ? rows[r] : r;
+      List<Object> rowValues = values.get(row);
+      if (keys != null) {
+        keyFormatter.append(builder, keys[row]);
+      }
+      for (int i = 0; i < rowValues.size(); i++) {
+        if (keys != null || i != 0) {
+          builder.append('\t');
+        }
+        appendValue(builder, rowValues.get(i));
+      }
+      builder.append('\n');
+    }
+    return releaseBuffer(builder);
+  }
+
+  /**
+   * 渲染已经格式化为字符串的表格
+   *
+   * @param table 第一行为表头，其余行的单元格含有换行时转换为HTML
+   * @return 表格
+   */
+  public String renderList(List<List<String>> table) {
+    StringBuilder builder = acquireBuffer();
+    for (int r = 0; r < table.size(); r++) {
+      List<String> row = table.get(r);
+      for (int i = 0; i < row.size(); i++) {
+        if (i != 0) {
+          builder.append('\t');
+        }
+        if (r == 0) {
+          builder.append(row.get(i));
+        } else {
+          appendCell(builder, row.get(i));
+        }
+      }
+      builder.append('\n');
+    }
+    return releaseBuffer(builder);
+  }
+
+  /** 追加一个值，与 FormatUtils.valueToString 的结果相同 */
+  static void appendValue(StringBuilder builder, Object value) {
+    if (value instanceof Long) {
+      builder.append((long) (Long) value);
+    } else if (value instanceof Double) {
+      builder.append((double) (Double) value);
+    } else if (value instanceof Integer) {
+      builder.append((int) (Integer) value);
+    } else if (value instanceof Float) {
+      builder.append((float) (Float) value);
+    } else if (value instanceof Boolean) {
+      builder.append((boolean) (Boolean) value);
+    } else if (value instanceof String) {
+      appendCell(builder, (String) value);
+    } else if (value instanceof byte[]) {
+      appendCell(builder, new String((byte[]) value));
+    } else {
+      builder.append(value);
+    }
+  }
+
+  /** 追加一个单元格，含有换行时转换为HTML：换行替换为br，制表符替换为空格，只遍历一次 */
+  static void appendCell(StringBuilder builder, String value) {
+    int newline = value.indexOf('\n');
+    if (newline < 0) {
+      builder.append(value);
+      return;
+    }
+    builder.append(HTML_PREFIX);
+    int start = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '\n' || c == '\t') {
+        builder.append(value, start, i).append(c == '\n' ? NEWLINE_HTML : TAB_HTML);
+        start = i + 1;
+      }
+    }
+    builder.append(value, start, value.length());
+  }
+
+  /** 将key格式化后追加到缓冲区 */
+  interface KeyFormatter {
+    void append(StringBuilder builder, long key);
+  }
+
+  private StringBuilder acquireBuffer() {
+    StringBuilder builder = buffers.get();
+    builder.setLength(0);
+    return builder;
+  }
+
+  private String releaseBuffer(StringBuilder builder) {
+    String result = builder.toString();
+    if (builder.capacity() > MAX_RETAINED_CAPACITY) {
+      buffers.set(new StringBuilder(INITIAL_CAPACITY));
+    } else {
+      builder.setLength(0);
+    }
+    return result;
+  }
+}
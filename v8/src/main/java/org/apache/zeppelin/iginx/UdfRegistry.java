@@ -0,0 +1,280 @@
+package org.apache.zeppelin.iginx;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * UDF 注册记录。记录通过本解释器注册的 UDF 以及注册时语句和模块文件的校验和，重复执行内容未改变的 CREATE FUNCTION 时不再上传模块文件。
+ *
+ * <p>设置了记录文件时，记录会保存到文件中，解释器重启后仍然有效。
+ *
+ * <p>注册成功后通过 {@link #backup} 备份模块文件，模块改变后需要先删除之前的函数再注册，新模块注册失败时可以用备份恢复之前的函数。
+ */
+public class UdfRegistry {
+
+  private static final Pattern FUNCTION_NAME_PATTERN =
+      Pattern.compile("(?i)\\b(?:UDTF|UDAF|UDSF|TRANSFORM)\\s+\"([^\"]+)\"");
+  private static final Pattern MODULE_PATH_PATTERN = Pattern.compile("(?i)\\bIN\\s+\"([^\"]+)\"");
+
+  // 计算目录的校验和时跳过的Python缓存目录
+  private static final String PYCACHE_DIR = "__pycache__";
+  // 恢复之前注册的函数所用的语句在记录中的键后缀
+  private static final String ROLLBACK_SUFFIX = "#rollback";
+
+  private final File file;
+  private final File backupDir;
+  private final Properties entries = new Properties();
+
+  /** @param file 记录文件，为null时只在内存中记录，模块备份在临时文件夹中 */
+  public UdfRegistry(File file) {
+    this.file = file;
+    this.backupDir =
+        file != null
+            ? new File(file.getAbsolutePath() + ".modules")
+            : new File(
+                System.getProperty("java.io.tmpdir"),
+                "iginx-udf-modules-" + System.getProperty("user.name"));
+    if (file != null && file.isFile()) {
+      try (InputStream in = Files.newInputStream(file.toPath())) {
+        entries.load(in);
+      } catch (IOException e) {
+        System.out.println("Can not load UDF registry: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * 解析 CREATE FUNCTION 语句中的函数名
+   *
+   * @param sql CREATE FUNCTION 语句
+   * @return 按字母顺序排列的函数名，没有时返回空列表
+   */
+  public static List<String> parseFunctionNames(String sql) {
+    List<String> names = new ArrayList<>();
+    Matcher matcher = FUNCTION_NAME_PATTERN.matcher(sql);
+    while (matcher.find()) {
+      names.add(matcher.group(1));
+    }
+    Collections.sort(names);
+    return names;
+  }
+
+  /**
+   * 解析 CREATE FUNCTION 语句中的模块文件路径
+   *
+   * @param sql CREATE FUNCTION 语句
+   * @return 模块文件或目录的路径，没有时返回null
+   */
+  public static String parseModulePath(String sql) {
+    Matcher matcher = MODULE_PATH_PATTERN.matcher(sql);
+    return matcher.find() ? matcher.group(1) : null;
+  }
+
+  /**
+   * 计算语句和模块文件的校验和，模块为目录时按相对路径的顺序依次计算目录下所有文件的路径和内容
+   *
+   * @param sql CREATE FUNCTION 语句，忽略多余空白
+   * @param modulePath 模块文件或目录的路径
+   * @return 十六进制的SHA-256校验和
+   * @throws IOException 读取模块文件失败
+   */
+  public static String checksum(String sql, String modulePath) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    digest.update(sql.trim().replaceAll("\\s+", " ").getBytes(StandardCharsets.UTF_8));
+
+    Path root = new File(modulePath).toPath().toAbsolutePath().normalize();
+    List<Path> files;
+    if (Files.isDirectory(root)) {
+      try (Stream<Path> stream = Files.walk(root)) {
+        files =
+            stream
+                .filter(Files::isRegularFile)
+                .filter(path -> !root.relativize(path).toString().contains(PYCACHE_DIR))
+                .sorted()
+                .collect(Collectors.toList());
+      }
+    } else {
+      files = Collections.singletonList(root);
+    }
+
+    byte[] buffer = new byte[64 * 1024];
+    for (Path path : files) {
+      digest.update(("\n" + root.relativize(path) + "\n").getBytes(StandardCharsets.UTF_8));
+      try (InputStream in = Files.newInputStream(path)) {
+        int len;
+        while ((len = in.read(buffer)) != -1) {
+          digest.update(buffer, 0, len);
+        }
+      }
+    }
+
+    StringBuilder builder = new StringBuilder();
+    for (byte b : digest.digest()) {
+      builder.append(String.format("%02x", b));
+    }
+    return builder.toString();
+  }
+
+  /**
+   * 记录的键，同一集群中的同一组函数对应同一个键
+   *
+   * @param cluster 集群地址
+   * @param functionNames 按字母顺序排列的函数名
+   * @return 键
+   */
+  public static String key(String cluster, List<String> functionNames) {
+    return cluster + "/" + String.join(",", functionNames);
+  }
+
+  /** 注册时的校验和，没有记录时返回null */
+  public synchronized String get(String key) {
+    return entries.getProperty(key);
+  }
+
+  /** 记录注册成功的校验和 */
+  public synchronized void put(String key, String checksum) {
+    entries.setProperty(key, checksum);
+    save();
+  }
+
+  /** 移除记录及模块备份 */
+  public synchronized void remove(String key) {
+    boolean removed = entries.remove(key) != null;
+    removed |= entries.remove(key + ROLLBACK_SUFFIX) != null;
+    if (removed) {
+      save();
+    }
+    try {
+      deleteRecursively(backupPath(key).toPath());
+    } catch (IOException e) {
+      System.out.println("Can not delete UDF module backup: " + e.getMessage());
+    }
+  }
+
+  /**
+   * 备份注册成功的模块文件，记录指向备份的注册语句，替换之前的备份
+   *
+   * @param key 键
+   * @param sql 注册成功的 CREATE FUNCTION 语句
+   * @param modulePath 模块文件或目录的路径
+   */
+  public synchronized void backup(String key, String sql, String modulePath) {
+    Path source = new File(modulePath).toPath().toAbsolutePath().normalize();
+    Path target = backupPath(key).toPath();
+    Path tmp = new File(target + ".tmp").toPath();
+    try {
+      deleteRecursively(tmp);
+      // 保留模块文件或目录的名称，IGinX按名称导入模块
+      Path copied = tmp.resolve(source.getFileName().toString());
+      copyRecursively(source, copied);
+      deleteRecursively(target);
+      Files.move(tmp, target);
+      Path backupModule = target.resolve(source.getFileName().toString());
+      Matcher matcher = MODULE_PATH_PATTERN.matcher(sql);
+      if (!matcher.find()) {
+        return;
+      }
+      String rollbackSql =
+          sql.substring(0, matcher.start(1))
+              + backupModule.toString()
+              + sql.substring(matcher.end(1));
+      entries.setProperty(key + ROLLBACK_SUFFIX, rollbackSql);
+      save();
+    } catch (IOException e) {
+      // 无法备份时新模块注册失败后不能恢复，但不影响注册
+      entries.remove(key + ROLLBACK_SUFFIX);
+      save();
+      System.out.println("Can not back up UDF module: " + e.getMessage());
+    }
+  }
+
+  /** 恢复之前注册的函数所用的语句，模块指向备份，没有备份时返回null */
+  public synchronized String getRollbackSql(String key) {
+    return entries.getProperty(key + ROLLBACK_SUFFIX);
+  }
+
+  private File backupPath(String key) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      StringBuilder builder = new StringBuilder();
+      for (byte b : digest.digest(key.getBytes(StandardCharsets.UTF_8))) {
+        builder.append(String.format("%02x", b));
+      }
+      return new File(backupDir, builder.substring(0, 16));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void copyRecursively(Path source, Path target) throws IOException {
+    if (!Files.isDirectory(source)) {
+      Files.createDirectories(target.getParent());
+      Files.copy(source, target);
+      return;
+    }
+    try (Stream<Path> stream = Files.walk(source)) {
+      for (Path path : stream.collect(Collectors.toList())) {
+        Path relative = source.relativize(path);
+        if (relative.toString().contains(PYCACHE_DIR)) {
+          continue;
+        }
+        Path destination = target.resolve(relative.toString());
+        if (Files.isDirectory(path)) {
+          Files.createDirectories(destination);
+        } else {
+          Files.copy(path, destination);
+        }
+      }
+    }
+  }
+
+  private static void deleteRecursively(Path path) throws IOException {
+    if (!Files.exists(path)) {
+      return;
+    }
+    try (Stream<Path> stream = Files.walk(path)) {
+      for (Path child : stream.sorted(Collections.reverseOrder()).collect(Collectors.toList())) {
+        Files.delete(child);
+      }
+    }
+  }
+
+  /** 先写入临时文件再替换，避免写入中断时记录文件损坏 */
+  private void save() {
+    if (file == null) {
+      return;
+    }
+    try {
+      File parent = file.getAbsoluteFile().getParentFile();
+      Files.createDirectories(parent.toPath());
+      Path tmp = Files.createTempFile(parent.toPath(), file.getName(), ".tmp");
+      try (OutputStream out = Files.newOutputStream(tmp)) {
+        entries.store(out, "UDF registered by IGinX Zeppelin interpreter");
+      }
+      Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      System.out.println("Can not save UDF registry: " + e.getMessage());
+    }
+  }
+}
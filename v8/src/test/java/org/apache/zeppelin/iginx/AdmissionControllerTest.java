@@ -0,0 +1,126 @@
+package org.apache.zeppelin.iginx;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.Test;
+
+class AdmissionControllerTest {
+
+  @Test
+  public void testFairOrderAcrossUsers() throws Exception {
+    AdmissionController controller = new AdmissionController(1, 0, 0, Collections.emptyMap(), 0);
+    AdmissionController.Ticket first = controller.acquire("alice", "note1", () -> false);
+    assertFalse(first.isQueued());
+
+    // alice先排队3个段落，bob之后排队1个段落，bob应在alice的第2个段落之前执行
+    List<String> order = Collections.synchronizedList(new ArrayList<>());
+    List<Thread> threads = new ArrayList<>();
+    for (String user : new String[] {"alice", "alice", "alice", "bob"}) {
+      Thread thread =
+          new Thread(
+              () -> {
+                try (AdmissionController.Ticket ticket =
+                    controller.acquire(user, "note1", () -> false)) {
+                  assertTrue(ticket.isQueued());
+                  order.add(user);
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                }
+              });
+      threads.add(thread);
+      thread.start();
+      waitUntil(() -> controller.getWaiting() == threads.size());
+    }
+
+    first.close();
+    for (Thread thread : threads) {
+      thread.join(10000);
+    }
+    assertEquals(4, order.size());
+    assertEquals("alice", order.get(0));
+    assertEquals("bob", order.get(1));
+    assertEquals(0, controller.getRunning());
+  }
+
+  @Test
+  public void testTryAcquireRespectsLimitsAndQueue() throws Exception {
+    AdmissionController controller = new AdmissionController(0, 2, 0, Collections.emptyMap(), 0);
+    AdmissionController.Ticket paragraph = controller.acquire("alice", "note1", () -> false);
+    // 段落占用一个名额，额外的语句只能再获取一个
+    AdmissionController.Ticket extra = controller.tryAcquire("alice", "note1");
+    assertNotNull(extra);
+    assertSame(extra, AdmissionController.currentTicket());
+    assertNull(controller.tryAcquire("alice", "note1"));
+    extra.close();
+    assertSame(paragraph, AdmissionController.currentTicket());
+
+    // 有段落排队时不插队
+    AdmissionController.Ticket second = controller.acquire("alice", "note2", () -> false);
+    Thread queued =
+        new Thread(
+            () -> {
+              try {
+                controller.acquire("alice", "note3", () -> false).close();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            });
+    queued.start();
+    waitUntil(() -> controller.getWaiting() == 1);
+    assertNull(controller.tryAcquire("bob", "note4"));
+    second.close();
+    queued.join(10000);
+    paragraph.close();
+    assertEquals(0, controller.getRunning());
+  }
+
+  @Test
+  public void testBindSharesTicketWithOtherThreads() throws Exception {
+    AdmissionController controller = new AdmissionController(1, 0, 0, Collections.emptyMap(), 0);
+    AdmissionController.Ticket paragraph = controller.acquire("alice", "note1", () -> false);
+    AdmissionController.Ticket[] seen = new AdmissionController.Ticket[2];
+    Thread worker =
+        new Thread(
+            () -> {
+              try (AdmissionController.Binding binding = paragraph.bind()) {
+                seen[0] = AdmissionController.currentTicket();
+              }
+              seen[1] = AdmissionController.currentTicket();
+            });
+    worker.start();
+    worker.join(10000);
+    assertSame(paragraph, seen[0]);
+    assertNull(seen[1]);
+    // 绑定不占用新的名额
+    assertEquals(1, controller.getRunning());
+    paragraph.close();
+  }
+
+  @Test
+  public void testCancelWhileQueued() throws Exception {
+    AdmissionController controller = new AdmissionController(0, 1, 0, Collections.emptyMap(), 0);
+    AdmissionController.Ticket first = controller.acquire("alice", "note1", () -> false);
+    // 其他用户不受alice的并发限制
+    controller.acquire("bob", "note1", () -> false).close();
+    assertNull(controller.acquire("alice", "note2", () -> true));
+    assertEquals(0, controller.getWaiting());
+    first.close();
+  }
+
+  private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
+  }
+}
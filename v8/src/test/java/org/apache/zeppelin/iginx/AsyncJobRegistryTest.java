@@ -0,0 +1,27 @@
+package org.apache.zeppelin.iginx;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+
+class AsyncJobRegistryTest {
+
+  @Test
+  public void testJobsAreScopedToOwner() {
+    AsyncJobRegistry registry = new AsyncJobRegistry(10);
+    AsyncJobRegistry.Job alice = registry.submit("select * from a;", "alice", job -> {});
+    AsyncJobRegistry.Job anonymous = registry.submit("select * from b;", null, job -> {});
+
+    assertSame(alice, registry.get(alice.getId(), "alice"));
+    assertNull(registry.get(alice.getId(), "bob"));
+    assertNull(registry.get(alice.getId(), null));
+    assertSame(anonymous, registry.get(anonymous.getId(), ""));
+
+    assertEquals(Collections.singletonList(alice), registry.list("alice"));
+    assertEquals(Collections.emptyList(), registry.list("bob"));
+    assertEquals(Collections.singletonList(anonymous), registry.list(null));
+  }
+}
@@ -0,0 +1,85 @@
+package org.apache.zeppelin.iginx;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ColumnarResultWriterTest {
+
+  @TempDir Path tempDir;
+
+  @Test
+  public void testWritesColumnsAtDescribedOffsets() throws Exception {
+    List<List<Object>> values = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      values.add(Arrays.asList(i % 3 == 0 ? null : (Object) (long) i, ("s" + i).getBytes()));
+    }
+    long[] keys = new long[10];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = 100 + i;
+    }
+    File file = tempDir.resolve("t.igc").toFile();
+    String descriptor =
+        ColumnarResultWriter.write(file, keys, Arrays.asList("root.a", "root.b"), values);
+
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    assertEquals(descriptor, new String(buffer.array(), 16, (int) buffer.getLong(8), "UTF-8"));
+
+    Matcher matcher =
+        Pattern.compile("\"validity\":(\\d+)(?:,\"offsets\":(\\d+))?,\"data\":(\\d+)")
+            .matcher(descriptor);
+    assertTrue(matcher.find());
+    int keyData = Integer.parseInt(matcher.group(3));
+    assertEquals(109, buffer.getLong(keyData + 9 * 8));
+
+    assertTrue(matcher.find());
+    int validity = Integer.parseInt(matcher.group(1));
+    int data = Integer.parseInt(matcher.group(3));
+    // 第0、3、6、9行为空
+    assertEquals(0b10110110, buffer.get(validity) & 0xff);
+    assertEquals(0b1, buffer.get(validity + 1) & 0xff);
+    assertEquals(8, buffer.getLong(data + 8 * 8));
+
+    assertTrue(matcher.find());
+    int offsets = Integer.parseInt(matcher.group(2));
+    int binaryData = Integer.parseInt(matcher.group(3));
+    long start = buffer.getLong(offsets + 9 * 8);
+    long end = buffer.getLong(offsets + 10 * 8);
+    assertEquals("s9", new String(buffer.array(), (int) (binaryData + start), (int) (end - start)));
+  }
+
+  @Test
+  public void testMixedTypeColumnIsWrittenAsBinary() throws Exception {
+    List<List<Object>> values =
+        Arrays.asList(
+            Arrays.asList((Object) 1L),
+            Arrays.asList((Object) 2.5),
+            Arrays.asList((Object) null),
+            Arrays.asList((Object) "x".getBytes()));
+    File file = tempDir.resolve("mixed.igc").toFile();
+    String descriptor = ColumnarResultWriter.write(file, null, Arrays.asList("root.mixed"), values);
+    assertTrue(descriptor.contains("\"dtype\":\"binary\""), descriptor);
+
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    Matcher matcher = Pattern.compile("\"offsets\":(\\d+),\"data\":(\\d+)").matcher(descriptor);
+    assertTrue(matcher.find());
+    int offsets = Integer.parseInt(matcher.group(1));
+    int data = Integer.parseInt(matcher.group(2));
+    assertEquals(5, buffer.getLong(offsets + 4 * 8));
+    assertEquals("12.5x", new String(buffer.array(), data, 5, "UTF-8"));
+  }
+}
@@ -0,0 +1,55 @@
+package org.apache.zeppelin.iginx;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DownloadStoreTest {
+
+  @TempDir Path outfileDir;
+
+  @Test
+  public void testInstancesShareOneQueuePerOutfileDir() throws IOException {
+    DownloadStore first = DownloadStore.shared(outfileDir.toString());
+    DownloadStore second = DownloadStore.shared(outfileDir.resolve(".").toString());
+    assertSame(first, second);
+
+    // 两个实例交替生成子文件夹，只清理最早生成的文件夹
+    Path dir1 = createDir("1");
+    first.register(dir1.toString(), 2, Double.MAX_VALUE);
+    Path dir2 = createDir("2");
+    second.register(dir2.toString(), 2, Double.MAX_VALUE);
+    Path dir3 = createDir("3");
+    first.register(dir3.toString(), 2, Double.MAX_VALUE);
+
+    assertFalse(Files.exists(dir1));
+    assertTrue(Files.exists(dir2));
+    assertTrue(Files.exists(dir3));
+  }
+
+  @Test
+  public void testRegisterSkipsFoldersDeletedElsewhere() throws IOException {
+    DownloadStore store = DownloadStore.shared(outfileDir.toString());
+    Path dir1 = createDir("1");
+    store.register(dir1.toString(), 1, Double.MAX_VALUE);
+
+    // 共用下载文件夹的其他进程已经删除了最早的子文件夹
+    Files.delete(dir1.resolve("data"));
+    Files.delete(dir1);
+    Path dir2 = createDir("2");
+    store.register(dir2.toString(), 1, Double.MAX_VALUE);
+    assertTrue(Files.exists(dir2));
+  }
+
+  private Path createDir(String name) throws IOException {
+    Path dir = Files.createDirectory(outfileDir.resolve(name));
+    Files.write(dir.resolve("data"), new byte[] {1});
+    return dir;
+  }
+}
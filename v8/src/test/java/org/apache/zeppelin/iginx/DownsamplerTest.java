@@ -0,0 +1,46 @@
+package org.apache.zeppelin.iginx;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class DownsamplerTest {
+
+  @Test
+  public void testKeepsSmallResult() {
+    long[] keys = {1, 2, 3};
+    List<List<Object>> values = new ArrayList<>();
+    for (long key : keys) {
+      values.add(Arrays.asList((Object) key));
+    }
+    assertNull(Downsampler.selectRows(keys, values, 3));
+  }
+
+  @Test
+  public void testKeepsPeaksAndEndpoints() {
+    int rowCount = 100000;
+    long[] keys = new long[rowCount];
+    List<List<Object>> values = new ArrayList<>();
+    for (int i = 0; i < rowCount; i++) {
+      keys[i] = i;
+      // 两列：一列平稳序列中有一个尖峰，另一列有空值
+      double value = i == 54321 ? 1000.0 : Math.sin(i / 1000.0);
+      values.add(Arrays.asList(value, i % 2 == 0 ? (Object) (long) i : null));
+    }
+
+    int[] rows = Downsampler.selectRows(keys, values, 1000);
+
+    assertTrue(rows.length <= 1000);
+    assertEquals(0, rows[0]);
+    assertEquals(rowCount - 1, rows[rows.length - 1]);
+    assertTrue(Arrays.binarySearch(rows, 54321) >= 0);
+    for (int i = 1; i < rows.length; i++) {
+      assertTrue(rows[i - 1] < rows[i]);
+    }
+  }
+}
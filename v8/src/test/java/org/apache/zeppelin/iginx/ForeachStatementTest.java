@@ -0,0 +1,48 @@
+package org.apache.zeppelin.iginx;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class ForeachStatementTest {
+
+  @Test
+  public void testExpandsTemplate() {
+    ForeachStatement statement =
+        ForeachStatement.parse(
+            "foreach device in (d1, 'd2',,d1) select max(temp) from root.#{device} where key < 100;");
+    assertEquals("device", statement.getParam());
+    assertEquals(Arrays.asList("d1", "d2"), statement.getValues());
+    assertEquals("select max(temp) from root.d2 where key < 100;", statement.expand("d2"));
+  }
+
+  @Test
+  public void testRejectsOtherStatements() {
+    assertNull(ForeachStatement.parse("select * from root.d1;"));
+    assertFalse(ForeachStatement.parse("FOREACH d IN (a) select * from root.#{x};").usesParam());
+  }
+
+  @Test
+  public void testMergesDuplicateColumnsByPosition() {
+    List<String> mergedPaths = new ArrayList<>();
+    int[][] positions =
+        ForeachStatement.mergeColumns(
+            Arrays.asList(
+                Arrays.asList("root.d1.a", "root.d1.a"),
+                null,
+                Arrays.asList("root.d1.b", "root.d1.a"),
+                Arrays.asList("root.d1.a", "root.d1.a", "root.d1.a")),
+            mergedPaths);
+    assertEquals(Arrays.asList("root.d1.a", "root.d1.a", "root.d1.b", "root.d1.a"), mergedPaths);
+    assertArrayEquals(new int[] {0, 1}, positions[0]);
+    assertNull(positions[1]);
+    assertArrayEquals(new int[] {2, 0}, positions[2]);
+    assertArrayEquals(new int[] {0, 1, 3}, positions[3]);
+  }
+}
@@ -0,0 +1,115 @@
+package org.apache.zeppelin.iginx;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.zeppelin.interpreter.InterpreterContext;
+import org.apache.zeppelin.interpreter.InterpreterException;
+import org.apache.zeppelin.interpreter.InterpreterResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** 准入控制在同一进程的解释器实例之间共用，不需要连接IGinX */
+class IginxInterpreterAdmissionTest {
+
+  // 只用于防止测试在出错时永久挂起，不作为性能断言
+  private static final long DEADLOCK_GUARD_SECONDS = 60;
+
+  @Test
+  public void testAdmissionLimitSpansInterpreterInstances(@TempDir Path outfileDir)
+      throws Exception {
+    Properties properties = new Properties();
+    properties.setProperty("iginx.outfile.dir", outfileDir.toString() + File.separator);
+    properties.setProperty("iginx.http.file.port", "0");
+    properties.setProperty("iginx.completion.refresh.interval", "0");
+    properties.setProperty("iginx.admission.max.concurrent", "1");
+    properties.setProperty("iginx.admission.user.weights", "admission-test:1");
+    IginxInterpreter8 first = new OfflineInterpreter(properties);
+    IginxInterpreter8 second = new OfflineInterpreter(properties);
+    first.open();
+    second.open();
+    AdmissionController controller = AdmissionController.shared(1, 0, 0, "admission-test:1", 0);
+    try {
+      // 占用唯一的执行名额，两个实例的段落都应排队等待同一个控制器
+      AdmissionController.Ticket ticket = controller.acquire("other", "note", () -> false);
+      CompletableFuture<InterpreterResult> firstResult =
+          interpretAsync(first, "show jobs;", "paragraph1");
+      CompletableFuture<InterpreterResult> secondResult =
+          interpretAsync(second, "show jobs;", "paragraph2");
+      long deadline = System.currentTimeMillis() + DEADLOCK_GUARD_SECONDS * 1000;
+      while (controller.getWaiting() < 2 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(2, controller.getWaiting());
+      assertFalse(firstResult.isDone());
+      assertFalse(secondResult.isDone());
+
+      ticket.close();
+      for (CompletableFuture<InterpreterResult> result : Arrays.asList(firstResult, secondResult)) {
+        InterpreterResult interpreterResult = result.get(DEADLOCK_GUARD_SECONDS, TimeUnit.SECONDS);
+        assertEquals(InterpreterResult.Code.SUCCESS, interpreterResult.code());
+        assertTrue(
+            interpreterResult.message().stream().anyMatch(m -> m.getData().contains("排队等待")));
+      }
+    } finally {
+      first.close();
+      second.close();
+    }
+  }
+
+  private CompletableFuture<InterpreterResult> interpretAsync(
+      IginxInterpreter8 interpreter, String sql, String paragraphId) {
+    InterpreterContext paragraphContext =
+        new InterpreterContext(
+            "noteId",
+            paragraphId,
+            "replName",
+            "paragraphTitle",
+            sql,
+            null,
+            null,
+            null,
+            null,
+            null,
+            null,
+            null,
+            null);
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            return interpreter.interpret(sql, paragraphContext);
+          } catch (InterpreterException e) {
+            throw new IllegalStateException(e);
+          }
+        });
+  }
+
+  /** 会话池不连接IGinX，show jobs 等由解释器处理的命令不需要会话 */
+  private static class OfflineInterpreter extends IginxInterpreter8 {
+
+    private OfflineInterpreter(Properties properties) {
+      super(properties);
+    }
+
+    @Override
+    IginxSessionPool createSessionPool() {
+      return new IginxSessionPool(
+          IginxSessionPool.parseEndpoints("", "127.0.0.1", 6888, 1),
+          "root",
+          "root",
+          IginxSessionPool.POLICY_LEAST_REQUESTS,
+          0,
+          0) {
+        @Override
+        public void open() {}
+      };
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package org.apache.zeppelin.iginx;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.zeppelin.interpreter.InterpreterContext;
+import org.apache.zeppelin.interpreter.InterpreterException;
+import org.apache.zeppelin.interpreter.InterpreterResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** 解释器启动时的后台任务不阻塞open和不需要这些任务的语句 */
+class IginxInterpreterStartupTest {
+
+  // 只用于防止测试在出错时永久挂起，不作为性能断言
+  private static final long DEADLOCK_GUARD_SECONDS = 60;
+
+  private final InterpreterContext context =
+      new InterpreterContext(
+          "noteId",
+          "paragraphId",
+          "replName",
+          "paragraphTitle",
+          "text",
+          null,
+          null,
+          null,
+          null,
+          null,
+          null,
+          null,
+          null);
+
+  @Test
+  public void testOpenDoesNotWaitForDownloadStoreScan(@TempDir Path outfileDir) throws Exception {
+    CountDownLatch scanStarted = new CountDownLatch(1);
+    CountDownLatch releaseScan = new CountDownLatch(1);
+    Properties properties = new Properties();
+    properties.setProperty("iginx.outfile.dir", outfileDir.toString() + File.separator);
+    properties.setProperty("iginx.http.file.port", "0");
+    properties.setProperty("iginx.completion.refresh.interval", "0");
+    // 下载文件夹的扫描一直阻塞，直到测试放行
+    IginxInterpreter8 interpreter =
+        new IginxInterpreter8(properties) {
+          @Override
+          void loadNGINXStaticFilesInfo() throws IOException {
+            scanStarted.countDown();
+            try {
+              releaseScan.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              throw new IOException(e);
+            }
+            super.loadNGINXStaticFilesInfo();
+          }
+        };
+
+    try {
+      // 扫描未完成时open和不导出文件的语句都能返回
+      CompletableFuture.runAsync(
+              () -> {
+                try {
+                  interpreter.open();
+                } catch (InterpreterException e) {
+                  throw new IllegalStateException(e);
+                }
+              })
+          .get(DEADLOCK_GUARD_SECONDS, TimeUnit.SECONDS);
+      assertTrue(scanStarted.await(DEADLOCK_GUARD_SECONDS, TimeUnit.SECONDS));
+
+      InterpreterResult result =
+          CompletableFuture.supplyAsync(
+                  () -> {
+                    try {
+                      return interpreter.interpret("show cluster info;", context);
+                    } catch (InterpreterException e) {
+                      throw new IllegalStateException(e);
+                    }
+                  })
+              .get(DEADLOCK_GUARD_SECONDS, TimeUnit.SECONDS);
+      assertNotNull(result);
+
+      // 导出文件需要等待扫描完成
+      CompletableFuture<Void> export =
+          CompletableFuture.runAsync(
+              () -> {
+                try {
+                  interpreter.awaitDownloadStore();
+                } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+                }
+              });
+      assertThrows(TimeoutException.class, () -> export.get(200, TimeUnit.MILLISECONDS));
+      releaseScan.countDown();
+      export.get(DEADLOCK_GUARD_SECONDS, TimeUnit.SECONDS);
+    } finally {
+      releaseScan.countDown();
+      interpreter.close();
+    }
+  }
+}
@@ -0,0 +1,36 @@
+package org.apache.zeppelin.iginx;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OutfileIndexTest {
+
+  @TempDir Path outfileDir;
+
+  @Test
+  public void testInstancesShareIndexAndDataVersion() throws IOException {
+    Files.createDirectory(outfileDir.resolve("export"));
+    OutfileIndex first = OutfileIndex.shared(outfileDir.toString());
+    OutfileIndex second = OutfileIndex.shared(outfileDir.resolve(".").toString() + "/");
+    assertSame(first, second);
+
+    String sql = "select * from root.sg into outfile \"/tmp/a\" as stream;";
+    String key = OutfileIndex.key(sql, first.getDataVersion(), "stream");
+    first.put(key, "export", 60000);
+    assertEquals("export", second.lookup(key, 60000));
+    // 有效期更短的实例不复用已超过其有效期的结果
+    assertNull(second.lookup(key, -1));
+
+    // 另一个实例写入数据后，之前的导出结果不再复用
+    second.incrementDataVersion();
+    assertNotEquals(key, OutfileIndex.key(sql, first.getDataVersion(), "stream"));
+  }
+}
@@ -0,0 +1,250 @@
+package org.apache.zeppelin.iginx;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SimpleFileServerTest {
+
+  // 只用于防止测试在出错时永久挂起，不作为性能断言
+  private static final long DEADLOCK_GUARD_SECONDS = 60;
+
+  @TempDir Path tempDir;
+
+  private Path outfileDir;
+  private SimpleFileServer server;
+  private String token;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    outfileDir = Files.createDirectories(tempDir.resolve("base/outfile"));
+    server = SimpleFileServer.acquire(0, outfileDir.toString(), true);
+    Path tokenFile = SimpleFileServer.tokenPath(server.getPort());
+    token = new String(Files.readAllBytes(tokenFile), StandardCharsets.US_ASCII).trim();
+    if (Files.getFileStore(tokenFile).supportsFileAttributeView("posix")) {
+      assertEquals(
+          EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE),
+          Files.getPosixFilePermissions(tokenFile));
+    }
+  }
+
+  @AfterEach
+  public void tearDown() {
+    if (server != null) {
+      server.release(outfileDir.toString());
+    }
+  }
+
+  @Test
+  public void testRegisterRequiresPostAndToken() throws IOException {
+    Path sibling = Files.createDirectories(tempDir.resolve("base/other"));
+    Files.write(sibling.resolve("data"), new byte[] {1});
+
+    HttpURLConnection get =
+        (HttpURLConnection)
+            new URL(baseUrl() + "/register?root=" + URLEncoder.encode(sibling.toString(), "UTF-8"))
+                .openConnection();
+    assertEquals(405, get.getResponseCode());
+    assertEquals(403, post("/register", sibling.toString(), "wrong"));
+    assertEquals(404, download("/files/data"));
+
+    assertEquals(200, post("/register", sibling.toString(), token));
+    assertEquals(200, download("/files/data"));
+    assertEquals(200, post("/unregister", sibling.toString(), token));
+    assertEquals(404, download("/files/data"));
+  }
+
+  @Test
+  public void testRegisterRejectsRootsOutsideOutfileParent() throws IOException {
+    Path outside = Files.createDirectories(tempDir.resolve("outside"));
+    assertEquals(400, post("/register", "/", token));
+    assertEquals(400, post("/register", tempDir.toString(), token));
+    assertEquals(400, post("/register", tempDir.resolve("base").toString(), token));
+    assertEquals(400, post("/register", outside.toString(), token));
+    assertEquals(400, post("/register", outfileDir.resolve("../../outside").toString(), token));
+    assertEquals(400, post("/register", tempDir.resolve("base/missing").toString(), token));
+  }
+
+  @Test
+  public void testTokenFileIsOutsideOutfileDir() throws IOException {
+    Path tokenFile = SimpleFileServer.tokenPath(server.getPort());
+    assertFalse(tokenFile.toAbsolutePath().startsWith(tempDir.toAbsolutePath()));
+    assertEquals(404, download("/files/" + tokenFile.getFileName()));
+    assertFalse(token.isEmpty());
+  }
+
+  @Test
+  public void testAcquireRegistersSiblingRootWithAnotherProcess() throws Exception {
+    Path sibling = createSibling("sibling");
+    Process holder = startHolder("holder");
+    try {
+      int port = readPort(holder);
+      SimpleFileServer client = SimpleFileServer.acquire(port, sibling.toString(), true);
+      try {
+        assertEquals(port, client.getPort());
+        assertEquals(200, download("http://127.0.0.1:" + port, "/files/data"));
+      } finally {
+        client.release(sibling.toString());
+      }
+      assertEquals(404, download("http://127.0.0.1:" + port, "/files/data"));
+    } finally {
+      stopHolder(holder);
+    }
+  }
+
+  @Test
+  public void testTakesOverPortWhenHolderExits() throws Exception {
+    Path sibling = createSibling("sibling");
+    Process holder = startHolder("holder");
+    int port;
+    SimpleFileServer client;
+    try {
+      port = readPort(holder);
+      client = SimpleFileServer.acquire(port, sibling.toString(), true);
+    } finally {
+      // 模拟占用端口的进程异常退出
+      holder.destroyForcibly().waitFor(DEADLOCK_GUARD_SECONDS, TimeUnit.SECONDS);
+    }
+    try {
+      // 占用端口的进程退出后，本进程在下一次检查时接替端口，已经生成的链接继续可用
+      long deadline = System.currentTimeMillis() + DEADLOCK_GUARD_SECONDS * 1000;
+      int code = 0;
+      while (code != 200 && System.currentTimeMillis() < deadline) {
+        try {
+          code = download("http://127.0.0.1:" + port, "/files/data");
+        } catch (IOException e) {
+          Thread.sleep(100);
+        }
+      }
+      assertEquals(200, code);
+    } finally {
+      client.release(sibling.toString());
+    }
+  }
+
+  @Test
+  public void testServesRegisteredRootsAfterLastLocalRelease() throws Exception {
+    Path sibling = createSibling("sibling");
+    assertEquals(200, post("/register", sibling.toString(), token));
+
+    // 本进程不再使用，但其他进程注册的下载文件夹仍然可以下载
+    String holderUrl = baseUrl();
+    server.release(outfileDir.toString());
+    server = null;
+    assertEquals(200, download(holderUrl, "/files/data"));
+
+    assertEquals(200, post(holderUrl, "/unregister", sibling.toString(), token));
+    long deadline = System.currentTimeMillis() + DEADLOCK_GUARD_SECONDS * 1000;
+    boolean stopped = false;
+    while (!stopped && System.currentTimeMillis() < deadline) {
+      try {
+        download(holderUrl, "/files/data");
+        Thread.sleep(100);
+      } catch (IOException e) {
+        stopped = true;
+      }
+    }
+    assertTrue(stopped);
+  }
+
+  private Path createSibling(String name) throws IOException {
+    Path sibling = Files.createDirectories(tempDir.resolve("base").resolve(name));
+    Files.write(sibling.resolve("data"), new byte[] {1});
+    return sibling;
+  }
+
+  /** 在另一个进程中占用端口，该进程的下载文件夹与本进程不同 */
+  private Process startHolder(String name) throws Exception {
+    Path holderDir = Files.createDirectories(tempDir.resolve("base").resolve(name));
+    return new ProcessBuilder(
+            Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+            "-cp",
+            classPath(SimpleFileServerTest.class, SimpleFileServer.class, Test.class),
+            SimpleFileServerTest.class.getName(),
+            holderDir.toString())
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .start();
+  }
+
+  private int readPort(Process holder) throws IOException {
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(holder.getInputStream(), StandardCharsets.UTF_8));
+    return Integer.parseInt(reader.readLine().trim());
+  }
+
+  private void stopHolder(Process holder) throws Exception {
+    holder.getOutputStream().close();
+    holder.waitFor(DEADLOCK_GUARD_SECONDS, TimeUnit.SECONDS);
+    holder.destroy();
+  }
+
+  private static String classPath(Class<?>... classes) throws URISyntaxException {
+    StringBuilder builder = new StringBuilder();
+    for (Class<?> clazz : classes) {
+      if (builder.length() > 0) {
+        builder.append(File.pathSeparator);
+      }
+      builder.append(Paths.get(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()));
+    }
+    return builder.toString();
+  }
+
+  /** 在单独的进程中占用端口，输出端口号后等待标准输入关闭 */
+  public static void main(String[] args) throws IOException {
+    SimpleFileServer server = SimpleFileServer.acquire(0, args[0], true);
+    System.out.println(server.getPort());
+    System.out.flush();
+    while (System.in.read() != -1) {}
+    server.release(args[0]);
+  }
+
+  private String baseUrl() {
+    return "http://127.0.0.1:" + server.getPort();
+  }
+
+  private int post(String path, String root, String token) throws IOException {
+    return post(baseUrl(), path, root, token);
+  }
+
+  private int post(String baseUrl, String path, String root, String token) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    try (OutputStream out = connection.getOutputStream()) {
+      out.write(
+          ("root=" + URLEncoder.encode(root, "UTF-8") + "&token=" + token)
+              .getBytes(StandardCharsets.UTF_8));
+    }
+    return connection.getResponseCode();
+  }
+
+  private int download(String path) throws IOException {
+    return download(baseUrl(), path);
+  }
+
+  private int download(String baseUrl, String path) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+    return connection.getResponseCode();
+  }
+}
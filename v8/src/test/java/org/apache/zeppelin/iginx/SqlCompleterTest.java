@@ -0,0 +1,82 @@
+package org.apache.zeppelin.iginx;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.zeppelin.interpreter.thrift.InterpreterCompletion;
+import org.junit.jupiter.api.Test;
+
+class SqlCompleterTest {
+
+  private static List<String> values(List<InterpreterCompletion> completions) {
+    List<String> values = new ArrayList<>();
+    for (InterpreterCompletion completion : completions) {
+      values.add(completion.getValue());
+    }
+    return values;
+  }
+
+  @Test
+  public void testCompleteKeywordsAndFunctions() {
+    SqlCompleter completer = new SqlCompleter(100);
+    completer.updateFunctions(Arrays.asList("UDF_SUM"));
+
+    assertEquals(Arrays.asList("show", "showimg"), values(completer.complete("sh", 2)));
+    assertEquals(Arrays.asList("SHOW", "SHOWIMG"), values(completer.complete("SH", 2)));
+    assertTrue(values(completer.complete("SELECT UD", 9)).contains("UDF_SUM"));
+    assertTrue(values(completer.complete("select fi", 9)).contains("first_value"));
+  }
+
+  @Test
+  public void testCompletePathSegments() {
+    SqlCompleter completer = new SqlCompleter(100);
+    completer.updatePaths(
+        Arrays.asList("root.sg1.d1.status", "root.sg1.d2.status", "root.sg2.d1.temperature"));
+
+    assertTrue(values(completer.complete("select * from ro", 16)).contains("root"));
+    assertEquals(
+        Arrays.asList("d1", "d2"), values(completer.complete("select status from root.sg1.", 28)));
+    assertEquals(
+        Arrays.asList("temperature"), values(completer.complete("select root.sg2.d1.t", 20)));
+    assertTrue(completer.complete("select root.sg3.", 16).isEmpty());
+  }
+
+  @Test
+  public void testAcquireSharesOneRefreshPerKey() throws Exception {
+    CountDownLatch loaded = new CountDownLatch(1);
+    AtomicInteger firstLoads = new AtomicInteger();
+    AtomicInteger secondLoads = new AtomicInteger();
+    SqlCompleter.Loader first =
+        completer -> {
+          firstLoads.incrementAndGet();
+          completer.updatePaths(Arrays.asList("root.shared.status"));
+          loaded.countDown();
+        };
+    SqlCompleter.Loader second = completer -> secondLoads.incrementAndGet();
+
+    SqlCompleter completer = SqlCompleter.acquire("shared-test", 100, 3600000, first);
+    SqlCompleter other = SqlCompleter.acquire("shared-test", 100, 3600000, second);
+    try {
+      assertSame(completer, other);
+      assertTrue(loaded.await(60, TimeUnit.SECONDS));
+      assertTrue(values(other.complete("select * from root.sh", 21)).contains("shared"));
+      // 只有一个实例执行加载
+      assertEquals(1, firstLoads.get());
+      assertEquals(0, secondLoads.get());
+    } finally {
+      completer.release(first);
+      other.release(second);
+    }
+    SqlCompleter fresh = SqlCompleter.acquire("shared-test", 100, 3600000, second);
+    assertNotSame(completer, fresh);
+    fresh.release(second);
+  }
+}
@@ -0,0 +1,95 @@
+package org.apache.zeppelin.iginx;
+
+import cn.edu.tsinghua.iginx.constant.GlobalConstant;
+import cn.edu.tsinghua.iginx.utils.FormatUtils;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 比较逐行生成字符串列表后拼接表格与 {@link TableRenderer} 直接渲染的耗时和内存分配。
+ *
+ * <p>不作为单元测试执行，需要时通过 JMH 运行并加上 -prof gc 查看每次渲染分配的内存。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TableRendererBenchmark {
+
+  @Param({"10000"})
+  private int rows;
+
+  private long[] keys;
+  private List<String> paths;
+  private List<List<Object>> values;
+  private TableRenderer renderer;
+
+  @Setup
+  public void setup() {
+    keys = new long[rows];
+    values = new ArrayList<>(rows);
+    for (int i = 0; i < rows; i++) {
+      keys[i] = 1700000000000L + i * 1000L;
+      values.add(
+          Arrays.asList(
+              (Object) (long) i,
+              i * 0.5,
+              i % 2 == 0,
+              ("value" + i).getBytes(),
+              i % 100 == 0 ? "line1\n\tline2" : "text" + i));
+    }
+    paths = Arrays.asList("root.a.l", "root.a.d", "root.a.b", "root.a.s", "root.a.t");
+    renderer = new TableRenderer("ms");
+  }
+
+  /** 原有的渲染方式：getResultInList 生成字符串列表，再逐个单元格替换和拼接 */
+  @Benchmark
+  public String legacy() {
+    List<List<String>> table = new ArrayList<>();
+    List<String> header = new ArrayList<>();
+    header.add(GlobalConstant.KEY_NAME);
+    header.addAll(paths);
+    table.add(header);
+    for (int i = 0; i < values.size(); i++) {
+      List<String> row = new ArrayList<>();
+      row.add(FormatUtils.formatTime(keys[i], FormatUtils.DEFAULT_TIME_FORMAT, "ms"));
+      for (Object value : values.get(i)) {
+        row.add(FormatUtils.valueToString(value));
+      }
+      table.add(row);
+    }
+
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < table.size(); i++) {
+      for (String val : table.get(i)) {
+        if (i != 0 && val.contains("\n")) {
+          val = "%html" + val.replace("\n", "<br>").replace("\t", "&nbsp;&nbsp;&nbsp;&nbsp;");
+        }
+        builder.append(val).append("\t");
+      }
+      builder.deleteCharAt(builder.length() - 1);
+      builder.append("\n");
+    }
+    return builder.toString();
+  }
+
+  @Benchmark
+  public String renderer() {
+    return renderer.renderQuery(keys, paths, values, null);
+  }
+}
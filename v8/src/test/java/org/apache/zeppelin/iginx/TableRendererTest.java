@@ -0,0 +1,69 @@
+package org.apache.zeppelin.iginx;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import cn.edu.tsinghua.iginx.utils.FormatUtils;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class TableRendererTest {
+
+  private static final String[] TIME_PRECISIONS = {"s", "ms", "us", "ns"};
+
+  @Test
+  public void testKeyFormatterMatchesFormatTime() {
+    List<Long> keys =
+        new ArrayList<>(
+            Arrays.asList(
+                0L,
+                1L,
+                -1L,
+                999L,
+                1_000_000_000L,
+                1_700_000_000_123_456_789L,
+                Long.MAX_VALUE,
+                Long.MAX_VALUE - 1,
+                Long.MIN_VALUE,
+                Long.MIN_VALUE + 1));
+    Random random = new Random(42);
+    for (int i = 0; i < 1000; i++) {
+      keys.add(random.nextLong());
+    }
+
+    for (String precision : TIME_PRECISIONS) {
+      TableRenderer.KeyFormatter formatter = TableRenderer.keyFormatter(precision);
+      StringBuilder builder = new StringBuilder();
+      for (long key : keys) {
+        builder.setLength(0);
+        formatter.append(builder, key);
+        assertEquals(
+            FormatUtils.formatTime(key, FormatUtils.DEFAULT_TIME_FORMAT, precision),
+            builder.toString(),
+            "key " + key + " with precision " + precision);
+      }
+    }
+  }
+
+  @Test
+  public void testRenderQueryFormatsKeys() {
+    long[] keys = {1L, Long.MAX_VALUE};
+    List<List<Object>> values =
+        Arrays.asList(Collections.singletonList(1L), Collections.singletonList(null));
+    for (String precision : TIME_PRECISIONS) {
+      String expected =
+          "key\ta.b\n"
+              + FormatUtils.formatTime(1L, FormatUtils.DEFAULT_TIME_FORMAT, precision)
+              + "\t1\n"
+              + FormatUtils.formatTime(Long.MAX_VALUE, FormatUtils.DEFAULT_TIME_FORMAT, precision)
+              + "\tnull\n";
+      assertEquals(
+          expected,
+          new TableRenderer(precision)
+              .renderQuery(keys, Collections.singletonList("a.b"), values, null));
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package org.apache.zeppelin.iginx;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class UdfRegistryTest {
+
+  @TempDir Path tempDir;
+
+  @Test
+  public void testChecksumFollowsModuleContent() throws Exception {
+    Path module = tempDir.resolve("udf");
+    Files.createDirectories(module.resolve("__pycache__"));
+    Files.write(module.resolve("udf_max.py"), "v1".getBytes(StandardCharsets.UTF_8));
+    String sql =
+        "CREATE FUNCTION UDAF \"udf_max\", UDSF \"udf_abs\" FROM \"UDFMax\", \"UDFAbs\" IN \""
+            + module
+            + "\";";
+
+    assertEquals(Arrays.asList("udf_abs", "udf_max"), UdfRegistry.parseFunctionNames(sql));
+    assertEquals(module.toString(), UdfRegistry.parseModulePath(sql));
+
+    String checksum = UdfRegistry.checksum(sql, module.toString());
+    // 空白和Python缓存不影响校验和
+    Files.write(module.resolve("__pycache__/udf_max.pyc"), new byte[] {1});
+    assertEquals(checksum, UdfRegistry.checksum(sql.replace(" IN ", "  IN "), module.toString()));
+
+    Files.write(module.resolve("udf_max.py"), "v2".getBytes(StandardCharsets.UTF_8));
+    assertNotEquals(checksum, UdfRegistry.checksum(sql, module.toString()));
+  }
+
+  @Test
+  public void testPersistsEntries() {
+    File file = tempDir.resolve("registry/udf.properties").toFile();
+    String key = UdfRegistry.key("127.0.0.1:6888", Arrays.asList("udf_max"));
+    new UdfRegistry(file).put(key, "abc");
+    assertEquals("abc", new UdfRegistry(file).get(key));
+  }
+
+  @Test
+  public void testBackupKeepsPreviousModuleForRollback() throws Exception {
+    Path module = tempDir.resolve("udf");
+    Files.createDirectories(module);
+    Files.write(module.resolve("udf_max.py"), "v1".getBytes(StandardCharsets.UTF_8));
+    String sql = "CREATE FUNCTION UDAF \"udf_max\" FROM \"UDFMax\" IN \"" + module + "\";";
+    UdfRegistry registry = new UdfRegistry(tempDir.resolve("registry/udf.properties").toFile());
+    String key = UdfRegistry.key("127.0.0.1:6888", Arrays.asList("udf_max"));
+    registry.put(key, UdfRegistry.checksum(sql, module.toString()));
+    registry.backup(key, sql, module.toString());
+
+    // 模块被修改后，恢复语句仍指向注册时的模块内容
+    Files.write(module.resolve("udf_max.py"), "v2".getBytes(StandardCharsets.UTF_8));
+    String rollbackSql = registry.getRollbackSql(key);
+    Path backupModule = Paths.get(UdfRegistry.parseModulePath(rollbackSql));
+    assertEquals("udf", backupModule.getFileName().toString());
+    assertEquals("v1", new String(Files.readAllBytes(backupModule.resolve("udf_max.py")), "UTF-8"));
+    assertEquals(sql.replace(module.toString(), backupModule.toString()), rollbackSql);
+
+    registry.remove(key);
+    assertNull(registry.getRollbackSql(key));
+    assertFalse(Files.exists(backupModule));
+  }
+}